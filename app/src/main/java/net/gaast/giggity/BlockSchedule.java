@@ -80,6 +80,8 @@ public class BlockSchedule extends LinearLayout implements NestedScroller.Listen
 	private int TentWidth = 64;
 	private final float fontSizeSmall = 12;
 	private float fontSize = 12; // scaled/configurable
+	// Items that ended before this get dimmed. Worked out once per refresh, not per item.
+	private long pastBefore = Long.MIN_VALUE;
 	
 	BlockSchedule(Activity ctx_, Schedule sched_) {
 		super(ctx_);
@@ -102,8 +104,13 @@ public class BlockSchedule extends LinearLayout implements NestedScroller.Listen
 		draw();
 	}
 
+	private void updatePastBefore() {
+		pastBefore = sched.isToday() ? System.currentTimeMillis() : Long.MIN_VALUE;
+	}
+
 	@SuppressWarnings("deprecation")
 	private void draw() {
+		updatePastBefore();
 		removeAllViews();
 		
 		int x, y;
@@ -203,13 +210,12 @@ public class BlockSchedule extends LinearLayout implements NestedScroller.Listen
 
 			x = 0;
 			h = TentHeight;
+			long left = cal.getTimeInMillis();
 			
 			for (Schedule.Item gig : tent.getItems()) {
-				posx = (int) ((gig.getStartTime().getTime() -
-				               cal.getTime().getTime()) *
+				posx = (int) ((gig.getStartEpoch() * 1000 - left) *
 				              HourWidth / 3600000);
-				w    = (int) ((gig.getEndTime().getTime() -
-				               cal.getTime().getTime()) *
+				w    = (int) ((gig.getEndEpoch() * 1000 - left) *
 				              HourWidth / 3600000) - posx + 1;
 				
 				Element cell = new Element(ctx);
@@ -308,7 +314,7 @@ public class BlockSchedule extends LinearLayout implements NestedScroller.Listen
 			}
 			if (item != null && item.isHidden()) {
 				setAlpha(.25F);
-			} else if (item != null && sched.isToday() && item.getEndTime().before(new Date())) {
+			} else if (item != null && item.getEndEpoch() * 1000 < pastBefore) {
 				setAlpha(.5F);
 			} else {
 				setAlpha(1F);
@@ -467,6 +473,7 @@ public class BlockSchedule extends LinearLayout implements NestedScroller.Listen
 
 	@Override
 	public void refreshItems() {
+		updatePastBefore();
 		for (int i = 0; i < schedCont.getChildCount(); ++i) {
 			Element e = (Element) schedCont.getChildAt(i);
 			e.setBackgroundColor();
@@ -205,12 +205,14 @@ public class ChooserActivity extends Activity implements SwipeRefreshLayout.OnRe
 		DbSchedule sched = (DbSchedule) lista.getItem((int) mi.id);
 		if (sched == null) {
 		} else if (item.getItemId() == 0) {
-			/* Refresh. */
-			app.flushSchedule(sched.getUrl());
+			/* Refresh. If it's loaded already, ScheduleViewActivity will just merge in changes. */
 			openSchedule(sched.getUrl(), true, null);
 		} else if (item.getItemId() == 3) {
 			/* Unhide. */
-			sched.flushHidden();
+			if (!sched.flushHidden()) {
+				Toast.makeText(this, "Database busy, items may still show up as hidden until the next refresh.",
+				               Toast.LENGTH_LONG).show();
+			}
 			/* Refresh. */
 			app.flushSchedule(sched.getUrl());
 			openSchedule(sched.getUrl(), sched.refreshNow(), null);
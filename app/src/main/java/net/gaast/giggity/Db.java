@@ -29,6 +29,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.Log;
@@ -52,12 +57,14 @@ import java.text.SimpleDateFormat;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import static java.lang.Math.log;
@@ -65,16 +72,123 @@ import static java.lang.Math.log;
 public class Db {
 	private Giggity app;
 	private Helper dbh;
-	private static final int dbVersion = 19;
+	private static final int dbVersion = 21;
 	private int oldDbVer = dbVersion;
 	private SharedPreferences pref;
 
+	/* Star/hide changes don't get written right away but queued up for a single background thread
+	   (so nothing touches SQLite on the UI thread), which waits up to WRITE_DELAY for more to come
+	   in and then writes them all in one transaction. An item toggled five times in that window
+	   gets written once, with whatever its state is by then. */
+	private static final long WRITE_DELAY = 500;
+	private Handler writer;
+	private final LinkedHashMap<Schedule.Item,Connection> pendingItems = new LinkedHashMap<>();
+
 	public Db(Application app_) {
 		app = (Giggity) app_;
 		pref = PreferenceManager.getDefaultSharedPreferences(app);
 		dbh = new Helper(app_, "giggity", null, dbVersion);
+		// Write-ahead log instead of rollback journal: readers no longer wait for writers (or the
+		// other way around), and SQLiteDatabase then keeps a small pool of extra connections
+		// for reads from other threads. Which is why transactions in here are all NonExclusive,
+		// though in WAL mode that only matters for other writers.
+		dbh.setWriteAheadLoggingEnabled(true);
+
+		HandlerThread writerThread = new HandlerThread("DbWriter");
+		writerThread.start();
+		writer = new Handler(writerThread.getLooper());
+	}
+
+	private void queue(Connection conn, Collection<Schedule.Item> items) {
+		synchronized (pendingItems) {
+			boolean idle = pendingItems.isEmpty();
+			for (Schedule.Item item : items) {
+				pendingItems.put(item, conn);
+			}
+			if (idle && !pendingItems.isEmpty()) {
+				writer.postDelayed(writePending, WRITE_DELAY);
+			}
+		}
+	}
+
+	private Runnable writePending = new Runnable() {
+		@Override
+		public void run() {
+			LinkedHashMap<Connection,ArrayList<Schedule.Item>> byConn = new LinkedHashMap<>();
+			synchronized (pendingItems) {
+				writer.removeCallbacks(writePending);
+				for (Map.Entry<Schedule.Item,Connection> e : pendingItems.entrySet()) {
+					ArrayList<Schedule.Item> items = byConn.get(e.getValue());
+					if (items == null) {
+						byConn.put(e.getValue(), items = new ArrayList<>());
+					}
+					items.add(e.getKey());
+				}
+				pendingItems.clear();
+			}
+			if (byConn.isEmpty()) {
+				return;
+			}
+			SQLiteDatabase db = dbh.getWritableDatabase();
+			db.beginTransactionNonExclusive();
+			try {
+				for (Map.Entry<Connection,ArrayList<Schedule.Item>> e : byConn.entrySet()) {
+					e.getKey().writeScheduleItems(e.getValue());
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	};
+
+	/** Write out whatever is queued now instead of after WRITE_DELAY. Doesn't wait for it, see
+	 *  sync() for that. */
+	public void flush() {
+		writer.post(writePending);
+	}
+
+	/** Flush barrier: returns once everything queued before the call is in the database (or after
+	 *  a few seconds, if the writer's stuck on something, then it returns false). */
+	public boolean sync() {
+		if (Looper.myLooper() == writer.getLooper()) {
+			writePending.run();
+			return true;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		flush();
+		writer.post(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		try {
+			if (done.await(5, TimeUnit.SECONDS)) {
+				return true;
+			}
+			Log.e("DeoxideDb", "Timed out waiting for writer, not everything is saved yet");
+		} catch (InterruptedException e) {
+			Log.w("DeoxideDb", "Interrupted while waiting for writer");
+		}
+		return false;
 	}
 	
+	// Every lookup goes by these two, and the search results join on them as well. Unique so that
+	// "Insert Or Ignore" can do what an upsert would (no "On Conflict" until SQLite 3.24).
+	private static final String SCHEDULE_ITEM_INDEX =
+			"Create Unique Index If Not Exists schedule_item_sch_id_s On schedule_item (sci_sch_id, sci_id_s)";
+
+	/* Platform SQLite has no FTS5, so FTS4. notindexed since the ids and hash shouldn't ever match
+	   a search, and "Unindexed" in a column definition like we used to have is just ignored by FTS4.
+	   Prefix indexes since search-as-you-type makes nearly every query a foo* prefix query. hash is
+	   over the indexed text, so resetIndex() can tell which rows need redoing. Column order matters
+	   to searchItems(). */
+	private static final String ITEM_SEARCH_TABLE =
+			"Create Virtual Table item_search Using FTS4" +
+			"(sch_id, sci_id_s, title, subtitle, description, speakers, track, hash, " +
+			"notindexed=sch_id, notindexed=sci_id_s, notindexed=hash, prefix=\"2,3,4\")";
+
 	public Connection getConnection() {
 		return new Connection();
 	}
@@ -107,8 +221,8 @@ public class Db {
 			                                       "sci_remind Boolean, " +
 			                                       "sci_hidden Boolean, " +
 			                                       "sci_stars Integer(2) Null)");
-			db.execSQL("Create Virtual Table item_search Using FTS4" +
-			           "(sch_id Unindexed, sci_id_s Unindexed, title, subtitle, description, speakers, track)");
+			db.execSQL(SCHEDULE_ITEM_INDEX);
+			db.execSQL(ITEM_SEARCH_TABLE);
 			db.execSQL("Create Table search_history (hst_id Integer Primary Key AutoIncrement Not Null, " +
 			           "hst_query VarChar(128), " +
 					   "hst_atime Integer)");
@@ -203,12 +317,19 @@ public class Db {
 				}
 			}
 
-			if (oldVersion < 18) {
-				/* Full-text search! FTS4 doesn't exactly do Alter Table anyway so don't try. */
+			if (oldVersion < 20) {
+				/* Version 20 adds a unique index on schedule_item, which first needs any duplicate
+				   rows gone. Those shouldn't be there but might, see mergeDuplicateUrls(). */
+				mergeDuplicateItems(db);
+				db.execSQL(SCHEDULE_ITEM_INDEX);
+			}
+
+			if (oldVersion < 21) {
+				/* Full-text search! FTS4 doesn't exactly do Alter Table anyway so don't try. Version
+				   21 adds prefix indexes and a content hash column for incremental updates. */
 				try {
 					db.execSQL("Drop Table If Exists item_search");
-					db.execSQL("Create Virtual Table item_search Using FTS4" +
-							           "(sch_id Unindexed, sci_id_s Unindexed, title, subtitle, description, speakers, track)");
+					db.execSQL(ITEM_SEARCH_TABLE);
 
 					// We've just recreated the search index table, so flush all indexing timestamps
 					// that have now become lies.
@@ -246,16 +367,36 @@ public class Db {
 				}
 			}
 			q.close();  // WTF isn't this a garbage-collected language?
-			// Update sci_sch_id refs
-			for (Map.Entry e : idId.entrySet()) {
-				ContentValues row = new ContentValues();
-				row.put("sci_sch_id", (Integer) e.getValue());
-				db.update("schedule_item", row, "sci_sch_id = ?", new String[]{""+(Integer)e.getKey()});
-			}
-			// Remove the extra schedule table row
-			for (Map.Entry e : idId.entrySet()) {
-				db.delete("schedule", "sch_id = ?", new String[]{"" + e.getKey()});
+			// Update sci_sch_id refs and remove the extra schedule table row. onUpgrade() already
+			// runs inside a transaction so no need to start one here.
+			SQLiteStatement move = db.compileStatement("Update schedule_item Set sci_sch_id = ? Where sci_sch_id = ?");
+			SQLiteStatement del = db.compileStatement("Delete From schedule Where sch_id = ?");
+			for (Map.Entry<Integer,Integer> e : idId.entrySet()) {
+				move.bindLong(1, e.getValue());
+				move.bindLong(2, e.getKey());
+				move.executeUpdateDelete();
+				del.bindLong(1, e.getKey());
+				del.executeUpdateDelete();
 			}
+			move.close();
+			del.close();
+		}
+
+		/* Collapse duplicate (sci_sch_id, sci_id_s) rows into the oldest one. Keep it starred if any
+		   of them was, and only hidden if all of them were. */
+		private void mergeDuplicateItems(SQLiteDatabase db) {
+			db.execSQL("Update schedule_item Set " +
+			           "sci_remind = (Select Max(d.sci_remind) From schedule_item d" +
+			           " Where d.sci_sch_id = schedule_item.sci_sch_id And d.sci_id_s = schedule_item.sci_id_s), " +
+			           "sci_hidden = (Select Min(d.sci_hidden) From schedule_item d" +
+			           " Where d.sci_sch_id = schedule_item.sci_sch_id And d.sci_id_s = schedule_item.sci_id_s)" +
+			           " Where sci_id In (Select Min(sci_id) From schedule_item" +
+			           " Group By sci_sch_id, sci_id_s Having Count(*) > 1)");
+			SQLiteStatement del = db.compileStatement(
+					"Delete From schedule_item Where sci_id Not In" +
+					" (Select Min(sci_id) From schedule_item Group By sci_sch_id, sci_id_s)");
+			Log.i("DeoxideDb", "Removed " + del.executeUpdateDelete() + " duplicate schedule_item rows");
+			del.close();
 		}
 
 		@Override
@@ -292,8 +433,14 @@ public class Db {
 			return true;
 		}
 		
-		for (Seed.Schedule sched : seed.schedules) {
-			updateSchedule(db, sched);
+		db.beginTransactionNonExclusive();
+		try {
+			for (Seed.Schedule sched : seed.schedules) {
+				updateSchedule(db, sched);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
 		}
 		
 		if (newver != version) {
@@ -453,18 +600,28 @@ public class Db {
 		}
 	}
 	
+	/** Db state for one loaded schedule. Threading: all methods are safe to call from any thread.
+	 *  Reads (search, lists, getSchedule()) run on a pooled read connection, so they don't wait for
+	 *  writes in progress like resetIndex() on another thread, they'll just see the state from
+	 *  before it. Writes are serialised by SQLite, and the ones that would happen on the UI
+	 *  thread (stars, hiding, the current day) go through the background writer, see Db.queue().
+	 *  Long writes (resetIndex(), applyChanges()) belong on a background thread. */
 	public class Connection {
 		private Schedule sched;
 
 		private IdMap sciIdMap = new IdMap();
 		private long schId;
+
+		// Compiled statements for the write paths, made on first use in a transaction and closed
+		// again at the end of it, see closeStatements(). Only touch these inside a transaction,
+		// which also keeps other threads out while they're being bound and run.
+		private SQLiteStatement itemInsert, itemSelect, itemUpdate, indexInsert;
 		
 		private int day;
 		private String metadata;
 		
 		public void setSchedule(Schedule sched_, String url, boolean fresh) {
 			ContentValues row;
-			Cursor q;
 			
 			sched = sched_;
 
@@ -476,8 +633,18 @@ public class Db {
 				row.put("sch_rtime", new Date().getTime() / 1000);
 
 			SQLiteDatabase db = dbh.getWritableDatabase();
-			q = db.rawQuery("Select sch_id, sch_day, sch_metadata From schedule Where sch_url = ?",
-			                new String[]{sched.getUrl()});
+			db.beginTransactionNonExclusive();
+			try {
+				setSchedule(db, row, url);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+
+		private void setSchedule(SQLiteDatabase db, ContentValues row, String url) {
+			Cursor q = db.rawQuery("Select sch_id, sch_day, sch_metadata From schedule Where sch_url = ?",
+			                       new String[]{sched.getUrl()});
 
 			if (q.moveToNext()) {
 				/* Pick up additional data from the database. TODO: Pick up title (can't feed it back yet.) */
@@ -528,17 +695,44 @@ public class Db {
 			q.close();
 		}
 		
+		/** Saves the item's star/hidden state, soon-ish, in the background. See Db.queue(). */
 		public void saveScheduleItem(Schedule.Item item) {
-			ContentValues row = new ContentValues();
-			row.put("sci_remind", item.getRemind());
-			row.put("sci_hidden", item.isHidden());
+			queue(this, Collections.singletonList(item));
+		}
+
+		/** Same for a bunch of items (see Schedule.commit()). */
+		public void saveScheduleItems(Collection<Schedule.Item> items) {
+			queue(this, items);
+		}
 
-			Log.d("DeoxideDb", "Saving item " + item.getTitle() + " remind " + row.getAsString("sci_remind") +
-			                   " hidden " + row.getAsString("sci_hidden"));
+		public void flush() {
+			Db.this.flush();
+		}
 
+		/* The actual writing, on the writer thread only. */
+		private void writeScheduleItems(Collection<Schedule.Item> items) {
 			SQLiteDatabase db = dbh.getWritableDatabase();
-			Long sciId = sciIdMap.get(item.getId());
-			db.update("schedule_item", row, "sci_id = " + sciId, null);
+			db.beginTransactionNonExclusive();
+			try {
+				if (itemUpdate == null) {
+					itemUpdate = db.compileStatement("Update schedule_item Set sci_remind = ?, sci_hidden = ? Where sci_id = ?");
+				}
+				// applyChanges() renames ids in here from another thread.
+				synchronized (sciIdMap) {
+					for (Schedule.Item item : items) {
+						Log.d("DeoxideDb", "Saving item " + item.getTitle() + " remind " + item.getRemind() +
+						                   " hidden " + item.isHidden());
+						itemUpdate.bindLong(1, item.getRemind() ? 1 : 0);
+						itemUpdate.bindLong(2, item.isHidden() ? 1 : 0);
+						itemUpdate.bindLong(3, sciIdMap.get(db, item.getId()));
+						itemUpdate.executeUpdateDelete();
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				closeStatements();
+				db.endTransaction();
+			}
 		}
 
 		public ArrayList<DbSchedule> getScheduleList() {
@@ -619,13 +813,18 @@ public class Db {
 		
 		public void setDay(int day_) {
 			day = day_;
-			ContentValues row;
 
 			if (day >= 0) {
-				SQLiteDatabase db = dbh.getWritableDatabase();
-				row = new ContentValues();
+				final ContentValues row = new ContentValues();
 				row.put("sch_day", day);
-				db.update("schedule", row, "sch_id = ?", new String[]{"" + schId});
+				// Could otherwise end up waiting for an index build to finish.
+				writer.post(new Runnable() {
+					@Override
+					public void run() {
+						SQLiteDatabase db = dbh.getWritableDatabase();
+						db.update("schedule", row, "sch_id = ?", new String[]{"" + schId});
+					}
+				});
 			}
 		}
 
@@ -635,15 +834,24 @@ public class Db {
 
 		public void removeSchedule(String url) {
 			SQLiteDatabase db = dbh.getWritableDatabase();
-			Cursor q = db.rawQuery("Select sch_id From schedule Where sch_url = ?", new String[]{url});
-			while (q.moveToNext()) {
-				db.delete("schedule", "sch_id = ?", new String[]{"" + q.getInt(0)});
-				db.delete("schedule_item", "sci_sch_id = ?", new String[]{"" + q.getInt(0)});
+			db.beginTransactionNonExclusive();
+			try {
+				Cursor q = db.rawQuery("Select sch_id From schedule Where sch_url = ?", new String[]{url});
+				while (q.moveToNext()) {
+					db.delete("schedule", "sch_id = ?", new String[]{"" + q.getInt(0)});
+					db.delete("schedule_item", "sci_sch_id = ?", new String[]{"" + q.getInt(0)});
+				}
+				q.close();
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
 			}
-			q.close();
 		}
 
-		public void resetIndex(Collection<Schedule.Item> items) {
+		/** Brings the search index up to date if the schedule was refreshed since it was last built.
+		 *  Only rows whose text actually changed get redone. Takes a while for big schedules, so call
+		 *  in the background. A second caller waits for the first one and then finds nothing to do. */
+		public synchronized void resetIndex(Collection<Schedule.Item> items) {
 			SQLiteDatabase db = dbh.getReadableDatabase();
 			Cursor q = db.rawQuery("Select sch_id from schedule Where sch_id = " + schId +
 			                       " And (sch_itime <= sch_rtime Or sch_itime Is Null)",
@@ -655,109 +863,290 @@ public class Db {
 			q.close();
 
 			db = dbh.getWritableDatabase();
-			// schId needs to be passed as an int. Even though docs sound like everything's a string
-			// in FTS tables, this one's most definitely not and if you try to select for it as one
-			// you'll delete nothing and end up with lots of duplicate results.
-			db.delete("item_search", "sch_id = " + schId, null);
-			ContentValues row = new ContentValues();
-			for (Schedule.Item item : items) {
-				row.clear();
-				row.put("sch_id", schId);
-				row.put("sci_id_s", item.getId());
-				row.put("title", item.getTitle());
-				row.put("subtitle", item.getSubtitle());
-				row.put("description", item.getDescriptionStripped());
-				if (item.getSpeakers() != null) {
-					row.put("speakers", TextUtils.join(" ", item.getSpeakers()));
+			// All in one transaction, or each row becomes its own (journal + fsync) one.
+			long t0 = System.nanoTime();
+			int redone = 0;
+			db.beginTransactionNonExclusive();
+			try {
+				// schId needs to be passed as an int. Even though docs sound like everything's a string
+				// in FTS tables, this one's most definitely not and if you try to select for it as one
+				// you'll delete nothing and end up with lots of duplicate results.
+				HashMap<String,Long> rowIds = new HashMap<>();
+				HashMap<String,String> hashes = new HashMap<>();
+				// Any more rows for an item than the first one are duplicates (see above), to be deleted.
+				ArrayList<Long> stale = new ArrayList<>();
+				q = db.rawQuery("Select rowid, sci_id_s, hash From item_search Where sch_id = " + schId, null);
+				while (q.moveToNext()) {
+					if (rowIds.containsKey(q.getString(1))) {
+						stale.add(q.getLong(0));
+						continue;
+					}
+					rowIds.put(q.getString(1), q.getLong(0));
+					hashes.put(q.getString(1), q.getString(2));
+				}
+				q.close();
+
+				SQLiteStatement del = db.compileStatement("Delete From item_search Where rowid = ?");
+				try {
+					for (Schedule.Item item : items) {
+						String[] text = indexText(item);
+						String hash = indexHash(text);
+						Long rowId = rowIds.remove(item.getId());
+						if (rowId != null) {
+							if (hash.equals(hashes.get(item.getId()))) {
+								continue;
+							}
+							del.bindLong(1, rowId);
+							del.executeUpdateDelete();
+						}
+						insertIndexRow(db, item, text, hash);
+						redone++;
+					}
+					// Whatever's left is gone from the schedule.
+					stale.addAll(rowIds.values());
+					for (long rowId : stale) {
+						del.bindLong(1, rowId);
+						del.executeUpdateDelete();
+					}
+				} finally {
+					del.close();
+				}
+
+				ContentValues row = new ContentValues();
+				row.put("sch_itime", new Date().getTime() / 1000);
+				db.update("schedule", row, "sch_id = " + schId, null);
+				db.setTransactionSuccessful();
+			} finally {
+				closeStatements();
+				db.endTransaction();
+			}
+			Log.i("DeoxideDb", "Indexed " + redone + "/" + items.size() + " items in " + (System.nanoTime() - t0) / 1000000 + "ms");
+		}
+
+		/** Star/hidden state that applyChanges() found for an item that's back after having
+		 *  disappeared in an earlier version of the schedule. */
+		public class SavedState {
+			public final Schedule.Item item;
+			public final boolean remind, hidden;
+
+			private SavedState(Schedule.Item item_, boolean remind_, boolean hidden_) {
+				item = item_;
+				remind = remind_;
+				hidden = hidden_;
+			}
+		}
+
+		/** Incremental version of setSchedule() + resetIndex() for after a Schedule.merge(): only
+		 *  touches the rows of items that were added/removed/changed. Background thread only, and
+		 *  unlike setSchedule() it leaves the items alone: what it finds for returning items is
+		 *  returned for the caller to apply on the schedule's own thread. */
+		public synchronized ArrayList<SavedState> applyChanges(Schedule.ChangeSet changes) {
+			ArrayList<SavedState> ret = new ArrayList<>();
+			SQLiteDatabase db = dbh.getWritableDatabase();
+			Cursor q = db.rawQuery("Select sch_id from schedule Where sch_id = " + schId +
+			                       " And sch_itime > sch_rtime", null, null);
+			// If the index is stale anyway, resetIndex() will redo all of it so don't bother.
+			boolean indexed = q.getCount() > 0;
+			q.close();
+
+			db.beginTransactionNonExclusive();
+			try {
+				for (HashMap.Entry<String,String> e : changes.renamed.entrySet()) {
+					synchronized (sciIdMap) {
+						Long sciId = sciIdMap.remove(e.getKey());
+						if (sciId != null) {
+							sciIdMap.put(e.getValue(), sciId);
+						}
+					}
+					if (indexed) {
+						deleteIndexRow(db, e.getKey());
+					}
+				}
+				for (Schedule.Item item : changes.added) {
+					// May be an item that disappeared before and is now back.
+					q = db.rawQuery("Select sci_id, sci_remind, sci_hidden From schedule_item" +
+					                " Where sci_sch_id = " + schId + " And sci_id_s = ?",
+					                new String[]{item.getId()});
+					if (q.moveToNext()) {
+						synchronized (sciIdMap) {
+							sciIdMap.put(item.getId(), q.getLong(0));
+						}
+						ret.add(new SavedState(item, q.getInt(1) != 0, q.getInt(2) != 0));
+					}
+					q.close();
+				}
+				if (indexed) {
+					for (Schedule.Item item : changes.removed) {
+						deleteIndexRow(db, item.getId());
+					}
+					for (Schedule.Item item : changes.changed) {
+						deleteIndexRow(db, item.getId());
+						insertIndexRow(db, item);
+					}
+					for (Schedule.Item item : changes.added) {
+						insertIndexRow(db, item);
+					}
 				}
-				if (item.getTrack() != null) {
-					row.put("track", item.getTrack().getTitle());
+
+				long now = new Date().getTime() / 1000;
+				ContentValues row = new ContentValues();
+				row.put("sch_start", sched.getFirstTime().getTime() / 1000);
+				row.put("sch_end", sched.getLastTime().getTime() / 1000);
+				row.put("sch_rtime", now);
+				if (indexed) {
+					// +1 since a tie counts as stale in resetIndex().
+					row.put("sch_itime", now + 1);
 				}
-				db.insert("item_search", null, row);
+				db.update("schedule", row, "sch_id = " + schId, null);
+				db.setTransactionSuccessful();
+			} finally {
+				closeStatements();
+				db.endTransaction();
 			}
+			Log.i("DeoxideDb", "Applied changes " + changes + (indexed ? " incl. search index" : ""));
+			return ret;
+		}
 
-			row.clear();
-			row.put("sch_itime", new Date().getTime() / 1000);
-			db.update("schedule", row, "sch_id = " + schId, null);
+		private void deleteIndexRow(SQLiteDatabase db, String id) {
+			// See resetIndex() for why schId is inlined.
+			db.delete("item_search", "sch_id = " + schId + " And sci_id_s = ?", new String[]{id});
 		}
 
-		public Collection<String> searchItems(String query) {
-			final HashMap<String, Double> rank = new HashMap<>();
-			TreeSet<String> res = new TreeSet<>(new Comparator<String>() {
-				@Override
-				public int compare(String s, String t1) {
-					int byRank = -rank.get(s).compareTo(rank.get(t1));
-					if (byRank != 0) {
-						return byRank;
-					} else {
-						return s.compareTo(t1);
+		private void insertIndexRow(SQLiteDatabase db, Schedule.Item item) {
+			String[] text = indexText(item);
+			insertIndexRow(db, item, text, indexHash(text));
+		}
+
+		/* In the finally of every transaction that may have used them, or each Connection ever
+		   made would keep its own set of native statement handles around. */
+		private void closeStatements() {
+			for (SQLiteStatement st : new SQLiteStatement[]{itemInsert, itemSelect, itemUpdate, indexInsert}) {
+				if (st != null) {
+					st.close();
+				}
+			}
+			itemInsert = itemSelect = itemUpdate = indexInsert = null;
+		}
+
+		/* Call inside a transaction, see indexInsert. */
+		private void insertIndexRow(SQLiteDatabase db, Schedule.Item item, String[] text, String hash) {
+			if (indexInsert == null) {
+				indexInsert = db.compileStatement("Insert Into item_search " +
+				                                  "(sch_id, sci_id_s, title, subtitle, description, speakers, track, hash)" +
+				                                  " Values (?, ?, ?, ?, ?, ?, ?, ?)");
+			}
+			indexInsert.clearBindings();
+			// bindLong, see resetIndex().
+			indexInsert.bindLong(1, schId);
+			bind(indexInsert, 2, item.getId());
+			for (int i = 0; i < text.length; ++i) {
+				bind(indexInsert, 3 + i, text[i]);
+			}
+			bind(indexInsert, 8, hash);
+			indexInsert.executeInsert();
+		}
+
+		/* The indexed columns: title, subtitle, description, speakers, track. */
+		private String[] indexText(Schedule.Item item) {
+			return new String[]{
+				item.getTitle(),
+				item.getSubtitle(),
+				item.getDescriptionStripped(),
+				item.getSpeakers() != null ? TextUtils.join(" ", item.getSpeakers()) : null,
+				item.getTrack() != null ? item.getTrack().getTitle() : null,
+			};
+		}
+
+		private String indexHash(String[] text) {
+			// Just to spot changes, so no need for anything cryptographic.
+			long h = 1125899906842597L;
+			for (String s : text) {
+				h = 31 * h + (s == null ? 0 : s.length() + 1);
+				if (s != null) {
+					for (int i = 0; i < s.length(); ++i) {
+						h = 31 * h + s.charAt(i);
 					}
 				}
-			});
+			}
+			return Long.toHexString(h);
+		}
+
+		/** Item ids matching query, best first. null if the query's not valid FTS syntax. cancel
+		 *  (optional) aborts the query, which then throws OperationCanceledException. */
+		public Collection<String> searchItems(String query, CancellationSignal cancel) {
+			ArrayList<SearchHit> hits = new ArrayList<>();
 			SQLiteDatabase db = dbh.getReadableDatabase();
 			try {
-				Cursor q = db.rawQuery("Select item_search.sci_id_s, matchinfo(item_search, \"pcnalx\"), sci_remind, sci_hidden " +
+				// Starred events go to the top, and deleted ones to the bottom (if they're even
+				// going to be shown). Ranks below are at most a few dozen, so that's decisive.
+				Cursor q = db.rawQuery("Select item_search.sci_id_s, matchinfo(item_search, \"pcnalx\"), " +
+				                       "Case When sci_remind > 0 Then 1000 When sci_hidden > 0 Then -1000 Else 0 End" +
 				                       " From item_search Left Join schedule_item On (sci_sch_id = sch_id" +
 				                       " And item_search.sci_id_s = schedule_item.sci_id_s) Where sch_id = " + schId +
-				                       " And item_search Match ?", new String[]{query});
+				                       " And item_search Match ?", new String[]{query}, cancel);
+				int[] mi = null;
 				while (q.moveToNext()) {
 					// columns: 2=title, subtitle, description, speakers, track
-					Integer[] mi = toIntArray(q.getBlob(1));
-					double score = 8 * OkapiBM25Score(mi, 2) +
+					mi = toIntArray(q.getBlob(1), mi);
+					double score = q.getInt(2) +
+					               8 * OkapiBM25Score(mi, 2) +
 					               4 * OkapiBM25Score(mi, 3) +
 					               1 * OkapiBM25Score(mi, 4) +
 					               4 * OkapiBM25Score(mi, 5) +
 					               2 * OkapiBM25Score(mi, 6);
-					if (q.getInt(2) > 0) {
-						// Bump starred events up to the top.
-						score += 1000;
-					} else if (q.getInt(3) > 0) {
-						// And deleted items to the bottom (if they're even going to be shown).
-						score -= 1000;
-					}
-//					Log.d("search", q.getString(0) + " score: " + score + " remind " + q.getInt(2));
-					rank.put(q.getString(0), score);
-					res.add(q.getString(0));
+					hits.add(new SearchHit(q.getString(0), score));
 				}
 				q.close();
 			} catch (SQLiteException e) {
 				return null;
 			}
-			return res;
+			Collections.sort(hits);
+			ArrayList<String> ret = new ArrayList<>(hits.size());
+			for (SearchHit hit : hits) {
+				ret.add(hit.id);
+			}
+			return ret;
 		}
 
-		private void flushHidden(int id) {
-			SQLiteDatabase db = dbh.getWritableDatabase();
-			db.execSQL("Update schedule_item Set sci_hidden = 0 Where sci_sch_id = ?", new String[] {"" + id});
+		private boolean flushHidden(final int id) {
+			// Through the writer as well, after anything still queued that might hide things again.
+			flush();
+			writer.post(new Runnable() {
+				@Override
+				public void run() {
+					SQLiteDatabase db = dbh.getWritableDatabase();
+					db.execSQL("Update schedule_item Set sci_hidden = 0 Where sci_sch_id = ?", new String[] {"" + id});
+				}
+			});
+			// Callers reload the schedule right after, which should see the result.
+			return sync();
 		}
 
 		private class IdMap extends HashMap<String,Long> {
-			@Override
-			public Long get(Object key_) {
-				String key = (String) key_;  // @Override wasn't accepted with type String directly
+			/* Returns the sci_id for key, creating the schedule_item row if there isn't one yet.
+			   Call inside a transaction, see itemInsert. */
+			public long get(SQLiteDatabase db, String key) {
 				Long sciId;
 				if ((sciId = super.get(key)) != null) {
 					return sciId;
-				} else {
-					SQLiteDatabase db = dbh.getWritableDatabase();
-					Cursor q = db.rawQuery("Select sci_id From schedule_item" +
-					                       " Where sci_sch_id = " + schId + " And sci_id_s = ?",
-					                       new String[]{key});
-					if (q.moveToNext()) {
-						// This was a bug and maybe still is. Guess I'll log it at least. Normally
-						// id's should either have been here when we loaded the schedule, or been
-						// added to in-mem map in the else below.
-						Log.w("Db.IdMap", "Shouldn't have happened: id " + key + " appeared in table behind my back?");
-						sciId = q.getLong(0);
-					} else {
-						ContentValues row = new ContentValues();
-						row.put("sci_sch_id", schId);
-						row.put("sci_id_s", key);
-						super.put(key, sciId = db.insert("schedule_item", null, row));
-					}
-					q.close();
-					return sciId;
 				}
+				if (itemInsert == null) {
+					itemInsert = db.compileStatement("Insert Or Ignore Into schedule_item (sci_sch_id, sci_id_s) Values (?, ?)");
+					itemSelect = db.compileStatement("Select sci_id From schedule_item Where sci_sch_id = ? And sci_id_s = ?");
+				}
+				itemInsert.bindLong(1, schId);
+				itemInsert.bindString(2, key);
+				if ((sciId = itemInsert.executeInsert()) == -1) {
+					// This was a bug and maybe still is. Guess I'll log it at least. Normally
+					// id's should either have been here when we loaded the schedule, or been
+					// added to in-mem map right here.
+					Log.w("Db.IdMap", "Shouldn't have happened: id " + key + " appeared in table behind my back?");
+					itemSelect.bindLong(1, schId);
+					itemSelect.bindString(2, key);
+					sciId = itemSelect.simpleQueryForLong();
+				}
+				super.put(key, sciId);
+				return sciId;
 			}
 		}
 
@@ -791,9 +1180,25 @@ public class Db {
 		}
 	}
 
+	private static class SearchHit implements Comparable<SearchHit> {
+		final String id;
+		final double score;
+
+		SearchHit(String id_, double score_) {
+			id = id_;
+			score = score_;
+		}
+
+		@Override
+		public int compareTo(SearchHit o) {
+			int byRank = -Double.compare(score, o.score);
+			return byRank != 0 ? byRank : id.compareTo(o.id);
+		}
+	}
+
 	// Not mine, this was originally Kotlin code from I think https://medium.com/android-news/offline-full-text-search-in-android-ios-b4dd5bed3acd
 	// and decompiled back into Java by me.
-	private static double OkapiBM25Score(Integer[] matchinfo, int column) {
+	private static double OkapiBM25Score(int[] matchinfo, int column) {
 		double b = 0.75;
 		double k1 = 1.2;
 		int pOffset = 0;
@@ -826,13 +1231,21 @@ public class Db {
 		return score;
 	}
 
-	static private Integer[] toIntArray(byte[] blob) {
+	private static void bind(SQLiteStatement st, int i, String s) {
+		if (s == null) {
+			st.bindNull(i);
+		} else {
+			st.bindString(i, s);
+		}
+	}
+
+	/* Reuses ret if it's the right size, which for matchinfo() of the same query it always is. */
+	static private int[] toIntArray(byte[] blob, int[] ret) {
 		IntBuffer buf = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer();
-		Integer[] ret = new Integer[buf.capacity()];
-		int i = 0;
-		while (buf.hasRemaining()) {
-			ret[i++] = buf.get();
+		if (ret == null || ret.length != buf.capacity()) {
+			ret = new int[buf.capacity()];
 		}
+		buf.get(ret);
 		return ret;
 	}
 
@@ -845,6 +1258,7 @@ public class Db {
 		private Date atime;  // Access time, set by setSchedule above, used as sorting key in Chooser.
 		private Date rtime;  // Refresh time, last time Fetcher claimed the server sent new data.
 		private Date itime;  // Index time, last time it was added to the FTS index.
+		private int day;  // Last viewed, see Connection.getDay()
 
 		public DbSchedule(Cursor q) {
 			id = q.getInt(q.getColumnIndexOrThrow("sch_id"));
@@ -857,6 +1271,7 @@ public class Db {
 			atime = new Date(q.getLong(q.getColumnIndexOrThrow("sch_atime")) * 1000);
 			rtime = new Date(q.getLong(q.getColumnIndexOrThrow("sch_rtime")) * 1000);
 			itime = new Date(q.getLong(q.getColumnIndexOrThrow("sch_itime")) * 1000);
+			day = q.getInt(q.getColumnIndexOrThrow("sch_day"));
 		}
 		
 		public String getUrl() {
@@ -886,6 +1301,10 @@ public class Db {
 			return atime;
 		}
 
+		public int getDay() {
+			return day;
+		}
+
 		public boolean refreshNow() {
 			// TODO: Stop this and all other uses of the decrepit Date API.
 			Date now = new Date();
@@ -893,9 +1312,10 @@ public class Db {
 			return now.getTime() > (rtime.getTime() + interval * 1000);
 		}
 
-		public void flushHidden() {
+		/** Unhides all items. Waits for the write, false if that didn't finish in time. */
+		public boolean flushHidden() {
 			Connection db = getConnection();
-			db.flushHidden(id);
+			return db.flushHidden(id);
 		}
 	}
 }
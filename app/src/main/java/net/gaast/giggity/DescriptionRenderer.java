@@ -0,0 +1,84 @@
+package net.gaast.giggity;
+
+import android.content.Context;
+import android.text.Spanned;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.noties.markwon.Markwon;
+import io.noties.markwon.html.HtmlPlugin;
+import io.noties.markwon.linkify.LinkifyPlugin;
+
+/** Turns item descriptions into Spanned text for EventDialog. The two Markwon flavours get built
+ *  once, results go into an LRU cache so paging back and forth doesn't redo any of it, and
+ *  prefetch() can render the pages next to the current one in the background. */
+public class DescriptionRenderer {
+	// Counted in chars of source text, which should be a decent enough proxy for memory use.
+	private static final int CACHE_SIZE = 512 * 1024;
+
+	private final Markwon html, markdown;
+	private final LruCache<Long,Entry> cache;
+	private final ExecutorService bg = Executors.newSingleThreadExecutor();
+
+	private static class Entry {
+		// To notice when the item got updated (Schedule.merge()). Compared with equals(), the
+		// schedule may hand out a new copy of the same text every time.
+		final String source;
+		final Spanned text;
+
+		Entry(String source_, Spanned text_) {
+			source = source_;
+			text = text_;
+		}
+	}
+
+	public DescriptionRenderer(Context ctx) {
+		html = Markwon.builder(ctx).usePlugin(HtmlPlugin.create()).build();
+		markdown = Markwon.builder(ctx).usePlugin(LinkifyPlugin.create()).build();
+		cache = new LruCache<Long,Entry>(CACHE_SIZE) {
+			@Override
+			protected int sizeOf(Long key, Entry e) {
+				return e.source.length() + 1;
+			}
+		};
+	}
+
+	/** Rendered description, or null if there is none. Renders right here if it's not cached. */
+	public Spanned get(Schedule.Item item) {
+		String desc = item.getDescription();
+		if (desc == null) {
+			return null;
+		}
+		Entry e = cache.get(item.getKey());
+		if (e != null && e.source.equals(desc)) {
+			return e.text;
+		}
+		// Not sure Markwon instances are fine with being used from two threads at once, and if the
+		// background thread is working on this same item, it's better to wait for it anyway.
+		synchronized (this) {
+			e = cache.get(item.getKey());
+			if (e == null || !e.source.equals(desc)) {
+				e = new Entry(desc, (item.isDescriptionHtml() ? html : markdown).toMarkdown(desc));
+				cache.put(item.getKey(), e);
+			}
+		}
+		return e.text;
+	}
+
+	/** Render these in the background so get() will find them in cache. */
+	public void prefetch(Collection<Schedule.Item> items) {
+		final ArrayList<Schedule.Item> todo = new ArrayList<>(items);
+		bg.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Schedule.Item item : todo) {
+					get(item);
+				}
+			}
+		});
+	}
+}
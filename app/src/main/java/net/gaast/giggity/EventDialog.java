@@ -30,6 +30,7 @@ import android.graphics.Rect;
 import android.net.Uri;
 import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.text.method.ArrowKeyMovementMethod;
@@ -141,15 +142,11 @@ public class EventDialog extends FrameLayout {
 
 		String overlaps = null;
 		
-		for (Schedule.Item other : app_.getRemindItems()) {
-			if (item_ != other && other.overlaps(item_)) {
-				if (overlaps == null)
-					overlaps = ctx_.getResources().getString(R.string.overlap) + " ";
-				overlaps += other.getTitle() +
-				         " (" + tf.format(other.getStartTime()) + "–" + tf.format(other.getEndTime()) + "), ";
-			} else if (other.getStartTime().after(item_.getEndTime())){
-				break;
-			}
+		for (Schedule.Item other : item_.getSchedule().getConflicts(item_)) {
+			if (overlaps == null)
+				overlaps = ctx_.getResources().getString(R.string.overlap) + " ";
+			overlaps += other.getTitle() +
+			         " (" + tf.format(other.getStartTime()) + "–" + tf.format(other.getEndTime()) + "), ";
 		}
 		
 		t = root.findViewById(R.id.alert);
@@ -161,7 +158,9 @@ public class EventDialog extends FrameLayout {
 			v.setVisibility(View.GONE);
 		}
 		
-		Spannable desc = new SpannableString(item.getDescriptionSpanned(ctx));
+		Spanned rendered = app_.getDescriptionRenderer().get(item);
+		// Copy since the rendered version is shared, and we may add search highlights below.
+		Spannable desc = new SpannableString(rendered != null ? rendered : "");
 		if (searchQuery != null && !searchQuery.isEmpty()) {
 			String raw = desc.toString().toLowerCase();
 			Matcher m = Pattern.compile("(\"([^\"]*)\"|'([^']*)'|(\\S+))").matcher(searchQuery.toLowerCase());
@@ -336,7 +335,7 @@ public class EventDialog extends FrameLayout {
 			t.putExtra(android.content.Intent.EXTRA_SUBJECT, item_.getTitle());
 			java.text.DateFormat dateFormat = android.text.format.DateFormat.getDateFormat(ctx_);
 			String time = android.text.format.DateUtils.formatDateRange(
-				ctx_, item_.getStartTime().getTime(), item_.getEndTime().getTime(),
+				ctx_, item_.getStartEpoch() * 1000, item_.getEndEpoch() * 1000,
 				DateUtils.FORMAT_24HOUR | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
 
 			String text = item_.getSchedule().getTitle() + ": " + item_.getTitle() + "\n" +
@@ -42,10 +42,25 @@ public class EventDialogPager extends ViewPager {
 
 		searchQuery_ = searchQuery;
 
+		// Get the neighbours rendered while we're busy with the current one.
+		prefetch(item_index_);
+		addOnPageChangeListener(new SimpleOnPageChangeListener() {
+			@Override
+			public void onPageSelected(int position) {
+				prefetch(position);
+			}
+		});
+
 		setAdapter(new Adapter());
 		setCurrentItem(item_index_);
 	}
 
+	/* Descriptions of the pages ViewPager is about to instantiate around position. */
+	private void prefetch(int position) {
+		int from = Math.max(0, position - 1), to = Math.min(items_.size(), position + 3);
+		((Giggity) getContext().getApplicationContext()).getDescriptionRenderer().prefetch(items_.subList(from, to));
+	}
+
 	public void setTitleClick(OnClickListener title_click) {
 		title_click_ = title_click;
 	}
@@ -23,6 +23,7 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.ActionBar;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.app.AlertDialog;
 import android.app.Application;
@@ -38,6 +39,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.FileUtils;
 import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.View;
@@ -51,9 +53,16 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import androidx.core.app.ActivityCompat;
 
@@ -62,9 +71,14 @@ import androidx.core.app.ActivityCompat;
 @SuppressLint({"SimpleDateFormat"})
 public class Giggity extends Application {
 	private Db db;
-	HashMap<String,ScheduleUI> scheduleCache = new HashMap<>();  // url→ScheduleUI
+	ConcurrentHashMap<String,ScheduleUI> scheduleCache = new ConcurrentHashMap<>();  // url→ScheduleUI
+	// Loads in progress, so that concurrent getSchedule() calls for the same URL can share them.
+	private final HashMap<String,ScheduleLoad> scheduleLoads = new HashMap<>();
+	// Roughly how much heap we're willing to spend on keeping schedules around, see trimSchedules().
+	private long scheduleBudget;
 	TreeSet<Schedule.Item> remindItems = new TreeSet<>();
 	Reminder reminder;
+	private DescriptionRenderer descriptionRenderer;
 
 	static final String CHANNEL_ID = "X-GIGGITY-REMINDER";
 	
@@ -73,6 +87,9 @@ public class Giggity extends Application {
 		super.onCreate();
 		db = new Db(this);
 		reminder = new Reminder(this);
+		// A quarter of what we're allowed. Sizes are only estimates, and there's the UI as well.
+		ActivityManager am = getSystemService(ActivityManager.class);
+		scheduleBudget = am.getMemoryClass() * 1024L * 1024L / 4;
 		
 		PreferenceManager.setDefaultValues(this, R.xml.preferences, true);
 		
@@ -108,10 +125,6 @@ public class Giggity extends Application {
 		NotificationManager notificationManager = getSystemService(NotificationManager.class);
 		notificationManager.createNotificationChannel(channel);
 
-		// Apparently needed now that I don't use android.util.Xml.parse anymore. (As it did not
-		// work in standalone tests.)
-		System.setProperty("org.xml.sax.driver","org.xmlpull.v1.sax2.Driver");
-
 		Fetcher.init(this);
 	}
 	
@@ -119,11 +132,24 @@ public class Giggity extends Application {
 		return db.getConnection();
 	}
 	
+	public synchronized DescriptionRenderer getDescriptionRenderer() {
+		if (descriptionRenderer == null) {
+			descriptionRenderer = new DescriptionRenderer(this);
+		}
+		return descriptionRenderer;
+	}
+
 	public boolean hasSchedule(String url) {
 		return scheduleCache.containsKey(url);
 	}
 
-	public ScheduleUI getCachedSchedule(String url) { return scheduleCache.get(url); }
+	public ScheduleUI getCachedSchedule(String url) {
+		ScheduleUI ret = scheduleCache.get(url);
+		if (ret != null) {
+			ret.lastUsed = System.nanoTime();
+		}
+		return ret;
+	}
 	
 	public void flushSchedules() {
 		scheduleCache.clear();
@@ -131,38 +157,231 @@ public class Giggity extends Application {
 	}
 
 	public void flushSchedule(String url) {
-		if (hasSchedule(url)) {
-			Schedule sched = scheduleCache.get(url);
-			for (Schedule.Item item : getRemindItems()) {
-				if (item.getSchedule() == sched)
-					remindItems.remove(item);
-			}
+		ScheduleUI sched = scheduleCache.remove(url);
+		if (sched != null) {
+			forgetReminders(sched);
+		}
+	}
+
+	/* Only the in-memory list, alarms stay as they are. */
+	public void forgetReminders(Schedule sched) {
+		for (Schedule.Item item : getRemindItems()) {
+			if (item.getSchedule() == sched)
+				remindItems.remove(item);
 		}
-		scheduleCache.remove(url);
 	}
 	
+	/** Returns the schedule from memory or loads it. Concurrent calls (viewer, reminders, widget)
+	 *  for the same URL share one load instead of each downloading and parsing their own copy. Only
+	 *  the caller that started the load gets progress updates on its handler.
+	 *
+	 *  One exception: a CACHE_ONLY load (the "load cached copy" button on the loading screen) does
+	 *  not wait for a slow online one, since getting away from that is the whole point. It takes
+	 *  over instead: the online load gives up once it's done parsing (LateException to whoever
+	 *  started it) and anyone who joined that one gets the cached copy. Only if the online load is
+	 *  already past that point (so nearly done) does the CACHE_ONLY one just join it. */
 	public ScheduleUI getSchedule(String url, Fetcher.Source source, Handler progress) throws Schedule.LoadException {
-		if (!hasSchedule(url)) {
-			scheduleCache.put(url, ScheduleUI.loadSchedule(this, url, source, progress));
+		ScheduleUI ret = getCachedSchedule(url);
+		if (ret != null) {
+			return ret;
+		}
+
+		ScheduleLoad load, mine = null;
+		synchronized (scheduleLoads) {
+			load = scheduleLoads.get(url);
+			if (load != null && source == Fetcher.Source.CACHE_ONLY &&
+			    load.source != Fetcher.Source.CACHE_ONLY && load.abandon()) {
+				Log.d("Giggity.getSchedule", "Taking over from online load for " + url);
+				load = null;
+			}
+			if (load == null) {
+				// May have just finished, loads stay in here until they're in scheduleCache.
+				if ((ret = getCachedSchedule(url)) != null) {
+					return ret;
+				}
+				load = mine = new ScheduleLoad(url, source, progress);
+				scheduleLoads.put(url, load);
+			}
+		}
+
+		if (mine != null) {
+			try {
+				mine.task.run();
+			} finally {
+				synchronized (scheduleLoads) {
+					if (scheduleLoads.get(url) == mine) {
+						scheduleLoads.remove(url);
+					}
+				}
+			}
+		} else {
+			Log.d("Giggity.getSchedule", "Joining load already in progress for " + url);
+		}
+
+		try {
+			return load.task.get();
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (mine == null && t instanceof Schedule.LateException) {
+				// Joined an online load that a CACHE_ONLY one took over from, so wait for that one.
+				return getSchedule(url, source, null);
+			} else if (t instanceof RuntimeException) {
+				// LoadException, or a bug in the parser. Either way the caller is better at showing it.
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new Schedule.LoadException(t.toString());
+		} catch (InterruptedException e) {
+			throw new Schedule.LoadException("Interrupted while waiting for schedule load");
+		}
+	}
+
+	/* A load in progress, see getSchedule(). */
+	class ScheduleLoad implements Callable<ScheduleUI> {
+		final String url;
+		final Fetcher.Source source;
+		private final Handler progress;
+		final FutureTask<ScheduleUI> task = new FutureTask<>(this);
+		private boolean claimed, abandoned;
+
+		ScheduleLoad(String url_, Fetcher.Source source_, Handler progress_) {
+			url = url_;
+			source = source_;
+			progress = progress_;
+		}
+
+		@Override
+		public ScheduleUI call() {
+			ScheduleUI sched = ScheduleUI.loadSchedule(Giggity.this, this, url, source, progress);
+			sched.lastUsed = System.nanoTime();
+			scheduleCache.put(url, sched);
+			new Handler(Looper.getMainLooper()).post(new Runnable() {
+				@Override
+				public void run() {
+					trimSchedules(scheduleBudget, false);
+				}
+			});
+			return sched;
+		}
+
+		/** For ScheduleUI.loadSchedule() once it's done parsing, before it touches the db or
+		 *  reminders. False means a CACHE_ONLY load took over in the meantime so give up. */
+		synchronized boolean claim() {
+			if (!abandoned) {
+				claimed = true;
+			}
+			return claimed;
+		}
+
+		/* Makes the next claim() fail, unless it already happened. */
+		private synchronized boolean abandon() {
+			if (!claimed) {
+				abandoned = true;
+			}
+			return abandoned;
+		}
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= TRIM_MEMORY_COMPLETE) {
+			// We're next in line to get killed, so drop all we can. Doesn't lose anything, starred
+			// schedules get loaded again (from snapshot, usually) when needed. But do make sure
+			// that the last few stars are on disk before we go.
+			trimSchedules(0, true);
+			db.sync();
+		} else if (level >= TRIM_MEMORY_BACKGROUND ||
+		           (level >= TRIM_MEMORY_RUNNING_LOW && level < TRIM_MEMORY_UI_HIDDEN)) {
+			trimSchedules(0, false);
+		}
+	}
+
+	/* Drop schedules from memory until the (estimated) total is within budget. Least recently used
+	   ones go first, and the ones with starred items only if evictStarred, since those are the
+	   ones the user cares about and reminders/widget want them anyway. The most recently used one
+	   always stays since it's most likely on screen, and so do ones a viewer (possibly on the back
+	   stack) still holds: dropping those wouldn't free anything, and the next getSchedule() would
+	   load a second copy that goes its own way. Anything dropped gets reloaded transparently by
+	   the next getSchedule().
+	   Main thread only, commit() and forgetReminders() touch remindItems. */
+	private void trimSchedules(long budget, boolean evictStarred) {
+		ArrayList<ScheduleUI> list = new ArrayList<>(scheduleCache.values());
+		if (list.size() <= 1) {
+			return;
+		}
+		Collections.sort(list, new Comparator<ScheduleUI>() {
+			@Override
+			public int compare(ScheduleUI a, ScheduleUI b) {
+				return Long.compare(a.lastUsed, b.lastUsed);
+			}
+		});
+		list.remove(list.size() - 1);
+		Iterator<ScheduleUI> it = list.iterator();
+		while (it.hasNext()) {
+			if (it.next().hasChangeListeners()) {
+				it.remove();
+			}
+		}
+
+		long total = 0;
+		HashMap<ScheduleUI,Long> sizes = new HashMap<>();
+		for (ScheduleUI sched : scheduleCache.values()) {
+			long size = sched.estimateSize();
+			sizes.put(sched, size);
+			total += size;
+		}
+		for (int pass = 0; pass < (evictStarred ? 2 : 1) && total > budget; ++pass) {
+			for (ScheduleUI sched : list) {
+				if (total <= budget) {
+					break;
+				}
+				if (sched.hasStarred() != (pass == 1)) {
+					continue;
+				}
+				Log.i("Giggity.trimSchedules", "Dropping " + sched.getUrl() + " (~" + sizes.get(sched) / 1024 + "KiB of " + total / 1024 + ")");
+				// Stars get saved right away but hiding items only on commit().
+				sched.commit();
+				if (scheduleCache.remove(sched.getUrl(), sched)) {
+					forgetReminders(sched);
+				}
+				total -= sizes.get(sched);
+			}
 		}
-		return (scheduleCache.get(url));
 	}
 
 	public void updateRemind(Schedule.Item item) {
-		if (item.getRemind()) {
-			if (item.compareTo(ZonedDateTime.now()) < 0)
-				remindItems.add(item);
-		} else
-			remindItems.remove(item);
-		
+		trackRemind(item, ZonedDateTime.now());
 		reminder.poke(item);
 		Widget.updateWidget(this);
 	}
 
-	public void updateRemind() {
-		for (Schedule.Item it : getRemindItems()) {
-			updateRemind(it);
+	/** Same for many items at once, like when (re)loading a schedule restores all its stars: first
+	 *  updates the in-memory list for all of them, then sets alarms and updates the widget only
+	 *  once instead of for every item. */
+	public void updateRemind(Collection<Schedule.Item> items) {
+		if (items.isEmpty()) {
+			return;
 		}
+		ZonedDateTime now = ZonedDateTime.now();
+		for (Schedule.Item item : items) {
+			trackRemind(item, now);
+		}
+		reminder.poke(items);
+		Widget.updateWidget(this);
+	}
+
+	public void updateRemind() {
+		updateRemind(getRemindItems());
+	}
+
+	private void trackRemind(Schedule.Item item, ZonedDateTime now) {
+		if (item.getRemind()) {
+			if (item.compareTo(now) < 0)
+				remindItems.add(item);
+		} else
+			remindItems.remove(item);
 	}
 	
 	protected Collection<Schedule.Item> getRemindItems() {
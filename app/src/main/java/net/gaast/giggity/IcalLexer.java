@@ -0,0 +1,193 @@
+package net.gaast.giggity;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/** Streaming tokenizer for iCalendar files (RFC 5545, https://www.kanzaki.com/docs/ical/ ).
+ *  next() reads one unfolded "content line" into a reused char buffer, after which you can look
+ *  at its name, parameters and (unescaped) value. Nothing gets allocated unless you ask for a
+ *  String, so uninteresting properties cost next to nothing. */
+public class IcalLexer {
+	private Reader in;
+	private char[] buf = new char[8192];
+	private int pos, lim;
+
+	// Current content line, unfolded. Name is line[0..nameEnd), parameters (incl. leading ';')
+	// are line[nameEnd..valueStart-1), value is line[valueStart..len).
+	private char[] line = new char[256];
+	private int len, nameEnd, valueStart;
+	private int lnum;
+
+	private StringBuilder value = new StringBuilder();
+
+	public IcalLexer(Reader in_) {
+		in = in_;
+	}
+
+	/** Advance to the next content line. Returns false at EOF. Lines without a value (i.e. no ':'
+	 *  at all, so blank or just broken) are skipped. */
+	public boolean next() throws IOException {
+		while (readLine()) {
+			if (split()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Physical line number we're at, for error messages. */
+	public int getLineNumber() {
+		return lnum;
+	}
+
+	/** Case-insensitive property name check. */
+	public boolean nameIs(String name) {
+		return nameEnd == name.length() && regionMatches(0, name);
+	}
+
+	/** Returns the index of the property name in names (all lower-case), or -1. */
+	public int nameIn(String[] names) {
+		for (int i = 0; i < names.length; ++i) {
+			if (nameIs(names[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Case-insensitive check of the *raw* value, for BEGIN:/END: lines. */
+	public boolean valueIs(String v) {
+		return len - valueStart == v.length() && regionMatches(valueStart, v);
+	}
+
+	/** Value of the named parameter (e.g. "tzid"), or null if it's not there. */
+	public String param(String name) {
+		int i = nameEnd;
+		int end = valueStart - 1;
+		while (i < end && line[i] == ';') {
+			int start = ++i;
+			while (i < end && line[i] != '=' && line[i] != ';') {
+				i++;
+			}
+			boolean match = i - start == name.length() && regionMatches(start, name);
+			if (i >= end || line[i] != '=') {
+				continue;
+			}
+			int vstart = ++i;
+			boolean quoted = false;
+			while (i < end && (quoted || line[i] != ';')) {
+				if (line[i] == '"') {
+					quoted = !quoted;
+				}
+				i++;
+			}
+			if (match) {
+				if (i - vstart >= 2 && line[vstart] == '"' && line[i - 1] == '"') {
+					return new String(line, vstart + 1, i - vstart - 2);
+				}
+				return new String(line, vstart, i - vstart);
+			}
+		}
+		return null;
+	}
+
+	/** The value with backslash escapes resolved. */
+	public String value() {
+		value.setLength(0);
+		for (int i = valueStart; i < len; ++i) {
+			char c = line[i];
+			if (c == '\\' && i + 1 < len) {
+				c = line[++i];
+				if (c == 'n' || c == 'N') {
+					c = '\n';
+				}
+				// Anything else (\, \; \\) is just the character itself.
+			}
+			value.append(c);
+		}
+		return value.toString();
+	}
+
+	private boolean regionMatches(int off, String s) {
+		for (int i = 0; i < s.length(); ++i) {
+			if (Character.toLowerCase(line[off + i]) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Find the end of the name and the start of the value. Only the value may contain unquoted
+	   colons, parameter values can have them inside quotes. */
+	private boolean split() {
+		int i = 0;
+		while (i < len && line[i] != ';' && line[i] != ':') {
+			i++;
+		}
+		nameEnd = i;
+		boolean quoted = false;
+		while (i < len && (quoted || line[i] != ':')) {
+			if (line[i] == '"') {
+				quoted = !quoted;
+			}
+			i++;
+		}
+		if (i >= len || nameEnd == 0) {
+			return false;
+		}
+		valueStart = i + 1;
+		return true;
+	}
+
+	private int peek() throws IOException {
+		if (pos == lim) {
+			lim = in.read(buf, 0, buf.length);
+			pos = 0;
+			if (lim <= 0) {
+				lim = 0;
+				return -1;
+			}
+		}
+		return buf[pos];
+	}
+
+	/* Reads one logical line (so with continuation lines glued on) into line[]. Line endings can
+	   be LF, CRLF, or CRCRLF like in the JRES 2022 file, any number of CRs just gets swallowed. */
+	private boolean readLine() throws IOException {
+		len = 0;
+		if (peek() == -1) {
+			return false;
+		}
+		while (true) {
+			int c = peek();
+			if (c == -1) {
+				return true;
+			}
+			pos++;
+			if (c == '\r' || c == '\n') {
+				if (c == '\r') {
+					while ((c = peek()) == '\r') {
+						pos++;
+					}
+					if (c == '\n') {
+						pos++;
+					}
+				}
+				lnum++;
+				// Folded line? Then drop the newline + one whitespace and keep going.
+				c = peek();
+				if (c == ' ' || c == '\t') {
+					pos++;
+					continue;
+				}
+				return true;
+			}
+			if (len == line.length) {
+				char[] nl = new char[line.length * 2];
+				System.arraycopy(line, 0, nl, 0, len);
+				line = nl;
+			}
+			line[len++] = (char) c;
+		}
+	}
+}
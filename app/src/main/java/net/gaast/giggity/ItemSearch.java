@@ -3,6 +3,10 @@ package net.gaast.giggity;
 import android.app.Activity;
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 import android.text.InputType;
 import android.util.Log;
 import android.view.Gravity;
@@ -24,6 +28,8 @@ import android.widget.Toast;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ItemSearch extends LinearLayout implements ScheduleViewer {
 	private Giggity app;
@@ -35,6 +41,13 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 	private ScheduleListView resultList;
 	private QueryHistory queryList;
 
+	// Wait this long (ms) for more keystrokes before actually searching.
+	private static final int SEARCH_DELAY = 150;
+	// One thread is enough, a new query cancels the one before it.
+	private static final ExecutorService searcher = Executors.newSingleThreadExecutor();
+	private final Handler ui = new Handler(Looper.getMainLooper());
+	private SearchTask searchTask;
+
 	public ItemSearch(Activity ctx, Schedule sched) {
 		super(ctx);
 		this.ctx = ctx;
@@ -125,7 +138,7 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 				Log.d("onTextChanged", lastQuery);
 			}
 
-			updateResults();
+			updateResults(false);
 		}
 
 		@Override
@@ -134,7 +147,7 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 				// The * will disappear now which could modify the results ... can be annoying. :-(
 				lastQuery = getText().toString();
 				app.getDb().addSearchQuery(lastQuery);
-				updateResults();
+				updateResults(true);
 
 				// Keyboard obscures search results so go away!
 				View view = ctx.findViewById(android.R.id.content);
@@ -146,7 +159,11 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 			}
 		}
 
-		private void updateResults() {
+		/* Queries run in the background (SearchTask), after SEARCH_DELAY unless now. Anything still
+		   waiting or running for an older query gets cancelled. Until the new results are in, the
+		   old ones stay up, which flickers less than clearing the list on every keystroke. */
+		private void updateResults(boolean now) {
+			cancelSearch();
 			if (lastQuery.isEmpty()) {
 				queryList.setVisibility(VISIBLE);
 				queryList.reload();
@@ -154,18 +171,75 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 			} else {
 				queryList.setVisibility(GONE);
 				resultList.setVisibility(VISIBLE);
-				AbstractList res = sched.searchItems(lastQuery);
-				if (res != null) {
-					if (res.size() == 0) {
-						res.add(ctx.getString(R.string.search_results_empty));
-					}
-					resultList.setList(res);
-					resultList.refreshContents();
+				if (now) {
+					startSearch.run();
 				} else {
-					Toast.makeText(ctx, "Database query syntax error", Toast.LENGTH_SHORT).show();  // I18N
+					postDelayed(startSearch, SEARCH_DELAY);
 				}
 			}
 		}
+
+		/* Drop whatever's still waiting or running. */
+		private void cancelSearch() {
+			removeCallbacks(startSearch);
+			if (searchTask != null) {
+				searchTask.abort();
+				searchTask = null;
+			}
+		}
+
+		private Runnable startSearch = new Runnable() {
+			@Override
+			public void run() {
+				searchTask = new SearchTask(lastQuery);
+				searcher.execute(searchTask);
+			}
+		};
+	}
+
+	/* Runs on searcher, results go back to the UI thread unless abort()ed in the meantime. */
+	private class SearchTask implements Runnable {
+		private final String q;
+		private final CancellationSignal cancel = new CancellationSignal();
+
+		SearchTask(String q_) {
+			q = q_;
+		}
+
+		void abort() {
+			cancel.cancel();
+		}
+
+		@Override
+		public void run() {
+			final AbstractList res;
+			try {
+				res = ((ScheduleUI) sched).searchItems(q, cancel);
+			} catch (OperationCanceledException e) {
+				return;
+			}
+			ui.post(new Runnable() {
+				@Override
+				public void run() {
+					if (!cancel.isCanceled()) {
+						showResults(res);
+					}
+				}
+			});
+		}
+
+		private void showResults(AbstractList res) {
+			// res == null means the query was bogus.
+			if (res != null) {
+				if (res.size() == 0) {
+					res.add(ctx.getString(R.string.search_results_empty));
+				}
+				resultList.setList(res);
+				resultList.setSelection(0);
+			} else {
+				Toast.makeText(ctx, "Database query syntax error", Toast.LENGTH_SHORT).show();  // I18N
+			}
+		}
 	}
 
 	private class QueryHistory extends ListView {
@@ -261,10 +335,17 @@ public class ItemSearch extends LinearLayout implements ScheduleViewer {
 		protected void onPostExecute(Boolean b) {
 			Log.d("UpdateIndex", "Done! Updating search results");
 			progress.setVisibility(GONE);
-			query.updateResults();
+			query.updateResults(true);
 		}
 	}
 
+	@Override
+	protected void onDetachedFromWindow() {
+		// Results would only land on a view that's gone.
+		query.cancelSearch();
+		super.onDetachedFromWindow();
+	}
+
 	@Override
 	public void onShow() {
 		// Focus query field and auto-show keyboard only if there's no query entered yet and/or if
@@ -2,8 +2,8 @@ package net.gaast.giggity;
 
 import android.content.Context;
 
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.TreeSet;
 
 public class MyItemsView extends ScheduleListView implements ScheduleViewer {
@@ -24,17 +24,15 @@ public class MyItemsView extends ScheduleListView implements ScheduleViewer {
 		ArrayList fullList = new ArrayList();
 		TreeSet<Schedule.Item> seen = new TreeSet<Schedule.Item>();
 		TreeSet<Schedule.Item> coming = new TreeSet<Schedule.Item>();
-		Date now = new Date();
+		ZonedDateTime now = ZonedDateTime.now();
 
-		for (Schedule.Line tent : sched.getTents()) {
-			for (Schedule.Item item : tent.getItems()) {
-				if (item.getRemind()) {
-					if (item.compareTo(now) >= 0)
-						seen.add(item);
-					else
-						coming.add(item);
-				}
-			}
+		for (Schedule.Item item : sched.getStarting(null, now)) {
+			if (item.getRemind())
+				seen.add(item);
+		}
+		for (Schedule.Item item : sched.getStarting(now, null)) {
+			if (item.getRemind())
+				coming.add(item);
 		}
 		if (coming.size() > 0) {
 			fullList.add(getResources().getString(R.string.coming_up));
@@ -24,6 +24,9 @@ import android.content.Context;
 import java.time.ZonedDateTime;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.TreeSet;
 
 public class NowNext extends ScheduleListView implements ScheduleViewer {
@@ -65,21 +68,30 @@ public class NowNext extends ScheduleListView implements ScheduleViewer {
 
 			ZonedDateTime nextHour = now.plusHours(1);
 
-			for (Schedule.Line tent : sched.getTents()) {
-				boolean haveNext = false;  // Found at least one next item?
-				for (Schedule.Item item : tent.getItems()) {
-					if (item.getStartTimeZoned().isBefore(now) && item.getEndTimeZoned().isAfter(now)) {
-						fullList.add(item);
-					} else if (item.getStartTimeZoned().isAfter(now)) {
-						if (byTime && haveNext && item.getStartTimeZoned().isAfter(nextHour)) {
-							break;
-						}
-						nextList.add(item);
-						haveNext = true;
-						if (!byTime) {
-							break;
-						}
-					}
+			// Keep these grouped by room like the other views.
+			final ArrayList<Schedule.Line> tents = new ArrayList<>(sched.getTents());
+			ArrayList<Schedule.Item> running = sched.getRunning(now);
+			Collections.sort(running, new Comparator<Schedule.Item>() {
+				@Override
+				public int compare(Schedule.Item a, Schedule.Item b) {
+					return tents.indexOf(a.getLine()) - tents.indexOf(b.getLine());
+				}
+			});
+			fullList.addAll(running);
+
+			HashSet<Schedule.Line> haveNext = new HashSet<>();  // Rooms with at least one next item
+			for (Schedule.Item item : sched.getStarting(now, nextHour)) {
+				if (haveNext.add(item.getLine()) || byTime) {
+					nextList.add(item);
+				}
+			}
+			// Rooms with nothing in the next hour still get their first item for the rest of the day.
+			for (Schedule.Item item : sched.getStarting(nextHour, null)) {
+				if (haveNext.size() == tents.size()) {
+					break;
+				}
+				if (haveNext.add(item.getLine())) {
+					nextList.add(item);
 				}
 			}
 			
@@ -18,6 +18,8 @@ import android.widget.Toast;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 
 public class Reminder {
 	Giggity app;
@@ -55,29 +57,36 @@ public class Reminder {
 		}
 	};
 
-	private Notification buildNotification(Schedule.Item item) {
+	/* others: keys of all starred items per schedule, filled in as needed so that poking lots of
+	   items at once doesn't go through the whole list again for each of them. */
+	private Notification buildNotification(Schedule.Item item, HashMap<Schedule,long[]> others) {
 		Intent evi = new Intent(Intent.ACTION_VIEW, Uri.parse(item.getUrl()), app,
 				ScheduleViewActivity.class);
-		ArrayList<String> others = new ArrayList<>();
-		for (Schedule.Item it : app.getRemindItems()) {
-			if (it.getSchedule() == item.getSchedule()) {
-				others.add(it.getId());
+		long[] keys = others.get(item.getSchedule());
+		if (keys == null) {
+			ArrayList<Schedule.Item> list = new ArrayList<>();
+			for (Schedule.Item it : app.getRemindItems()) {
+				if (it.getSchedule() == item.getSchedule()) {
+					list.add(it);
+				}
 			}
+			keys = Schedule.getKeys(list);
+			others.put(item.getSchedule(), keys);
 		}
-		evi.putExtra("others", others.toArray(new String[others.size()]));
+		evi.putExtra("others", keys);
 
 		Notification.Builder nb = new Notification.Builder(app)
 				                          .setSmallIcon(R.drawable.ic_schedule_white_48dp)
 				                          .setColor(app.getResources().getColor(R.color.primary))
 				                          .setContentTitle(item.getTitle())
-				                          .setWhen(item.getStartTime().getTime())
+				                          .setWhen(item.getStartEpoch() * 1000)
 										  .setShowWhen(true)
 				                          .setVisibility(Notification.VISIBILITY_PUBLIC)
 				                          .setContentIntent(PendingIntent.getActivity(app, 0, evi, PendingIntent.FLAG_IMMUTABLE))
 				                          .setAutoCancel(true)
 				                          .setDefaults(Notification.DEFAULT_SOUND)
 				                          .setVibrate(((item.getStartTime().getDate() & 1) == 0) ? giggitygoo : mario)
-				                          .setSortKey(Long.toHexString((item.getStartTime().getTime() / 1000)))  // redundant with setWhen()?
+				                          .setSortKey(Long.toHexString(item.getStartEpoch()))  // redundant with setWhen()?
 				                          .setLights(app.getResources().getColor(R.color.primary), 500, 5000);
 
 		String location = item.getLine().getLocation();
@@ -94,6 +103,18 @@ public class Reminder {
 	}
 
 	public void poke(Schedule.Item item) {
+		poke(item, new HashMap<Schedule,long[]>());
+	}
+
+	/** Same as poke() for a bunch of items, like all starred ones of a schedule just loaded. */
+	public void poke(Collection<Schedule.Item> items) {
+		HashMap<Schedule,long[]> others = new HashMap<>();
+		for (Schedule.Item item : items) {
+			poke(item, others);
+		}
+	}
+
+	private void poke(Schedule.Item item, HashMap<Schedule,long[]> others) {
 		SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(app);
 		int period = Integer.parseInt(pref.getString("reminder_period", "5"));
 
@@ -103,14 +124,15 @@ public class Reminder {
 			return;
 		}
 
-		// Use hashCode() (rewritten for better entropy) as id for notifications etc to keep things
-		// nicely stateless and be able to cancel alarms and notifications later when necessary.
+		// Use the item's key as id for notifications etc to keep things nicely stateless and be able
+		// to cancel alarms and notifications later when necessary. Only 32 bits fit so take the top
+		// half, which is also what the old md5-based hashCode() was so existing alarms still match.
 		// bit 0 == 0 for creation and 1 for deletion alarm (when event has passed)
-		int id = item.hashCode() << 1;
+		int id = (int) (item.getKey() >>> 32) << 1;
 
 		Intent intent = new Intent(NotificationPoster.ACTION);
 		intent.putExtra("id", id);
-		intent.putExtra("notification", buildNotification(item));
+		intent.putExtra("notification", buildNotification(item, others));
 		PendingIntent ntfIntent = PendingIntent.getBroadcast(app, id, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
 		intent = new Intent(NotificationPoster.ACTION);
@@ -124,7 +146,7 @@ public class Reminder {
 		if (enabled && item.getRemind()) {
 			try {
 				am.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, tm.toEpochSecond() * 1000, ntfIntent);
-				am.set(AlarmManager.RTC, item.getEndTime().getTime(), endIntent);
+				am.set(AlarmManager.RTC, item.getEndEpoch() * 1000, endIntent);
 
 				Log.d("reminder", "Alarm set for " + item.getTitle() + " in " +
 						                  ChronoUnit.SECONDS.between(ZonedDateTime.now(), tm) + " seconds");
@@ -19,34 +19,43 @@
 
 package net.gaast.giggity;
 
-import android.content.Context;
-import android.text.Spanned;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.xml.sax.Attributes;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.InputSource;
-import org.xml.sax.Locator;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.AttributesImpl;
-import org.xml.sax.helpers.XMLReaderFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.Collator;
 import java.text.ParseException;
 import java.text.ParsePosition;
+import java.time.DateTimeException;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -58,24 +67,43 @@ import java.time.temporal.TemporalAccessor;
 import java.util.AbstractList;
 import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import io.noties.markwon.Markwon;
-import io.noties.markwon.html.HtmlPlugin;
-import io.noties.markwon.linkify.LinkifyPlugin;
 
 public class Schedule implements Serializable {
 	private final int detectHeaderSize = 1024;
+
+	/* Binary snapshots of parsed schedules, see saveSnapshot(). Bump the version whenever the format
+	   *or* the output of any of the parsers changes, old snapshots will then just get reparsed. */
+	private static final int SNAPSHOT_MAGIC = 0x47475453;  // "GGTS"
+	private static final int SNAPSHOT_VERSION = 4;
+	private static final int DESC_CACHE_SIZE = 16;
+
+	// For Item.setDescription().
+	private static final Pattern htmlCheck = Pattern.compile("(?i)</?(?!p)\\b");
+	private static final Pattern htmlParagraphs = Pattern.compile("(?is)(\\s*</?p>\\s*)+");
+	private static final Pattern htmlParagraphsAfterTag = Pattern.compile("(?i)(<[^/p][^>]+>)(<p>)+");
 	
 	private String url;
 	private String title;
@@ -83,6 +111,7 @@ public class Schedule implements Serializable {
 	private LinkedList<Schedule.Line> tents = new LinkedList<>();
 	protected HashMap<String,Schedule.Item> allItems = new HashMap<>();
 	protected HashMap<String,String> cIdMap = new HashMap<>();
+	private HashMap<Long,Schedule.Item> keyMap = new HashMap<>();  // Item.getKey() → Item
 	private Collator trackSort;
 	private SortedMap<String,Track> tracks;
 
@@ -90,11 +119,26 @@ public class Schedule implements Serializable {
 	private ZonedDateTime dayFirstTime, dayLastTime;  // equal to full schedule bounds (so spanning multiple days) if day = -1
 	private int curDayNum;
 	private ZonedDateTime curDay, curDayEnd;          // null if curDayNum = -1
+	private long curDaySec, curDayEndSec;             // Same, in epoch seconds, for isVisible()
 	// For internal use, *exact* hour boundaries (day-before for some day change + tz offset combs)
-	private LinkedList<ZonedDateTime> dayList = new LinkedList<>();
+	private ArrayList<ZonedDateTime> dayList = new ArrayList<>();
 	// For external use, dates only
 	private LinkedList<ZonedDateTime> day0List = new LinkedList<>();
+	// Day index, same order as dayList and built by buildDayIndex(). Boundaries in epoch millis so
+	// setDay(ZonedDateTime) can binary search, and per day its items (sorted) and time bounds.
+	private long[] dayStarts = new long[0], dayEnds = new long[0];
+	private Item[][] dayItems = new Item[0][];
+	private ZonedDateTime[] dayFirst = new ZonedDateTime[0], dayLast = new ZonedDateTime[0];
+	// Interval index over all items, see buildTimeIndex().
+	private Item[] timeItems = new Item[0];
+	private long[] timeStarts = new long[0], timeEnds = new long[0], timeMaxEnd = new long[0];
+	// Starred items and their overlaps, see addStarred().
+	private ArrayList<Item> starred = new ArrayList<>();
+	private HashMap<Item,ArrayList<Item>> conflicts = new HashMap<>();
+	private long maxStarredLength;
 	private boolean showHidden;  // So hidden items are shown but with a different colour.
+	// Bumped on anything that changes what ItemList.getItems() returns, which caches on it.
+	private int version;
 
 	private ZoneId inTZ = ZoneId.systemDefault();   // TZ-less/UTC times to be interpreted as/converted to this.
 	private ZoneId outTZ = ZoneId.systemDefault();  // Usually our local timezone, this is returned externally.
@@ -102,6 +146,10 @@ public class Schedule implements Serializable {
 
 	private HashSet<String> languages = new HashSet<>();
 
+	// Speaker names, each stored only once. Items refer to them by index, see speakerId().
+	private ArrayList<String> speakerNames = new ArrayList<>();
+	private HashMap<String,Integer> speakerIds = new HashMap<>();
+
 	/* Misc. data not in the schedule file but from Giggity's menu.json. Though it'd certainly be
 	 * nice if some file formats could start supplying this info themselves. */
 	private String icon;
@@ -109,6 +157,25 @@ public class Schedule implements Serializable {
 	protected String roomStatusUrl;
 
 	protected boolean fullyLoaded;
+	// Items with user changes not saved yet, see commit(). Lock on it, commit() can come from
+	// other threads (Giggity.trimSchedules()).
+	private final LinkedHashSet<Item> dirty = new LinkedHashSet<>();
+
+	protected String sourceHash;  // of the raw file, if loaded through loadSchedule(byte[], ...)
+
+	/* Descriptions are most of the data but hardly ever looked at. So once there's a snapshot, they
+	   stay in it (mapped, not on the heap) and items just know where theirs is. See
+	   Item.getDescription(). The few most recently used ones are kept around decoded. */
+	private transient ByteBuffer descBlob;
+	private transient LinkedHashMap<Item,String> descCache = new LinkedHashMap<Item,String>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Item,String> eldest) {
+			return size() > DESC_CACHE_SIZE;
+		}
+	};
+	private transient LinkedList<ChangeListener> changeListeners = new LinkedList<>();
+	private transient DayListener dayListener;
+	private transient int dayListenerItems;  // allItems.size() as of the last dayLoaded()
 
 	public Schedule() {
 		// Was apparently needed to get case insensitive sorting? add19dcb8fb97a8611a147f316da80a962f073ee
@@ -128,19 +195,21 @@ public class Schedule implements Serializable {
 
 		String head = new String(headc).toLowerCase();
 
-		/* Yeah, I know this is ugly, and actually reasonably fragile. For now it
-		 * just seems somewhat more efficient than doing something smarter, and
-		 * I want to avoid doing XML-specific stuff here already. */
-		if (head.contains("<icalendar") && head.contains("<vcalendar")) {
-			loadXcal(in);
-		} else if (head.contains("<schedule") && head.contains("<conference")) {
-			loadPentabarf(in);
-		} else if (head.contains("begin:vcalendar")) {
-			loadIcal(in);
-		} else {
+		Format format = null;
+		synchronized (formats) {
+			for (Format f : formats) {
+				if (f.sniff(head)) {
+					format = f;
+					break;
+				}
+			}
+		}
+		if (format == null) {
 			Log.d("head", head);
 			throw new LoadException(getString(R.string.format_unknown));
 		}
+		Log.d("Schedule.loadSchedule", "Looks like " + format.getName());
+		format.load(this, in);
 
 		Log.d("load", "Schedule has " + languages.size() + " languages");
 
@@ -151,43 +220,616 @@ public class Schedule implements Serializable {
 			throw new LoadException(getString(R.string.schedule_empty));
 		}
 
+		buildDayList();
+
+		// Discard track info if there's just one, on all talks. (Bornhack)
+		if (getTracks() != null && getTracks().size() == 1 &&
+		    getTracks().iterator().next().getItems().size() == allItems.size()) {
+			tracks.clear();
+			for (Item it : allItems.values()) {
+				it.track = null;
+			}
+		}
+
+		freeze();
+		logMenuJson();
+	}
+
+	/* Days with any items in them, starting at dayChange (so could be "yesterday"). */
+	private void buildDayList() {
 		ZonedDateTime day = firstTime.truncatedTo(ChronoUnit.DAYS).with(dayChange);
 		/* Add a day 0 (maybe there's an event before the first day officially
 		 * starts?). Saw this in the CCC Fahrplan for example. */
 		if (day.isAfter(firstTime))
 			day = day.minusDays(1);
 
-		ZonedDateTime dayEnd = day.plusDays(1);
-
-		dayList = new LinkedList<>();
+		dayList = new ArrayList<>();
 		while (day.isBefore(lastTime)) {
-			/* Some schedules have empty days in between. :-/ Skip those. */
-			for (Schedule.Item item : allItems.values()) {
-				if (item.startTime.compareTo(day) >= 0 &&
-				    item.endTime.compareTo(dayEnd) <= 0) {
-					// Exact start time of day (could be "yesterday")
-					dayList.add(day);
-					// Midnight date-only for display purpose.
-					day0List.add(day.truncatedTo(ChronoUnit.DAYS));
-					break;
+			dayList.add(day);
+			day = day.plusDays(1);
+		}
+		/* Some schedules have empty days in between. :-/ This will drop those. */
+		buildDayIndex();
+	}
+
+	/* Sort all items into the days in dayList, in one pass with a binary search per item instead
+	   of scanning all items for every day. Like before, items only belong to a day if they fit in
+	   it entirely. Days that end up empty are dropped. */
+	private void buildDayIndex() {
+		int n = dayList.size();
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		for (int i = 0; i < n; ++i) {
+			starts[i] = dayList.get(i).toInstant().toEpochMilli();
+			// Not just + 24h, DST changes happen.
+			ends[i] = dayList.get(i).plusDays(1).toInstant().toEpochMilli();
+		}
+
+		ArrayList<ArrayList<Item>> buckets = new ArrayList<>(n);
+		for (int i = 0; i < n; ++i) {
+			buckets.add(new ArrayList<Item>());
+		}
+		for (Item item : allItems.values()) {
+			// Last day starting at or before this item.
+			int d = Arrays.binarySearch(starts, item.start * 1000);
+			if (d < 0) {
+				d = -d - 2;
+			}
+			if (d >= 0 && item.end * 1000 <= ends[d]) {
+				buckets.get(d).add(item);
+			}
+		}
+
+		ArrayList<ZonedDateTime> days = new ArrayList<>();
+		int m = 0;
+		for (ArrayList<Item> b : buckets) {
+			if (!b.isEmpty()) {
+				m++;
+			}
+		}
+		dayStarts = new long[m];
+		dayEnds = new long[m];
+		dayItems = new Item[m][];
+		dayFirst = new ZonedDateTime[m];
+		dayLast = new ZonedDateTime[m];
+		day0List = new LinkedList<>();
+		for (int i = 0, j = 0; i < n; ++i) {
+			ArrayList<Item> b = buckets.get(i);
+			if (b.isEmpty()) {
+				continue;
+			}
+			Item[] items = b.toArray(new Item[b.size()]);
+			Arrays.sort(items);
+			Item last = items[0];
+			for (Item item : items) {
+				if (item.end > last.end)
+					last = item;
+			}
+			// Exact start time of day (could be "yesterday")
+			days.add(dayList.get(i));
+			// Midnight date-only for display purpose.
+			day0List.add(dayList.get(i).truncatedTo(ChronoUnit.DAYS));
+			dayStarts[j] = starts[i];
+			dayEnds[j] = ends[i];
+			dayItems[j] = items;
+			dayFirst[j] = items[0].startIn();
+			dayLast[j] = last.endIn();
+			j++;
+		}
+		dayList = days;
+
+		buildTimeIndex();
+	}
+
+	/* Interval index over all items for getRunning()/getStarting(). timeItems is sorted by start
+	   time, and doubles as an implicit balanced tree (root of [lo, hi) is the middle element) where
+	   timeMaxEnd has the latest end time in each subtree so whole branches can be skipped. */
+	private void buildTimeIndex() {
+		// From the rooms and not allItems, which has only one of any items with duplicate ids.
+		ArrayList<Item> all = new ArrayList<>();
+		for (Line line : tents) {
+			all.addAll(Arrays.asList(line.sorted()));
+		}
+		timeItems = all.toArray(new Item[all.size()]);
+		Arrays.sort(timeItems);
+		timeStarts = new long[timeItems.length];
+		timeEnds = new long[timeItems.length];
+		for (int i = 0; i < timeItems.length; ++i) {
+			timeStarts[i] = timeItems[i].start * 1000;
+			timeEnds[i] = timeItems[i].end * 1000;
+		}
+		timeMaxEnd = new long[timeItems.length];
+		buildMaxEnd(0, timeItems.length);
+	}
+
+	private long buildMaxEnd(int lo, int hi) {
+		if (lo >= hi) {
+			return Long.MIN_VALUE;
+		}
+		int mid = (lo + hi) >>> 1;
+		timeMaxEnd[mid] = Math.max(timeEnds[mid], Math.max(buildMaxEnd(lo, mid), buildMaxEnd(mid + 1, hi)));
+		return timeMaxEnd[mid];
+	}
+
+	/** Items running at t (started before, not finished yet), in order of start time. Filtered like
+	 *  ItemList.getItems(), so only today's if a day is set, and hidden ones only if showHidden. */
+	public ArrayList<Item> getRunning(ZonedDateTime t) {
+		ArrayList<Item> ret = new ArrayList<>();
+		getRunning(0, timeItems.length, t.toInstant().toEpochMilli(), ret);
+		return ret;
+	}
+
+	private void getRunning(int lo, int hi, long t, ArrayList<Item> ret) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		if (timeMaxEnd[mid] <= t) {
+			return;  // Everything in here is over already.
+		}
+		getRunning(lo, mid, t, ret);
+		if (timeStarts[mid] >= t) {
+			return;  // And everything from here on is still to come.
+		}
+		if (timeEnds[mid] > t && isVisible(timeItems[mid])) {
+			ret.add(timeItems[mid]);
+		}
+		getRunning(mid + 1, hi, t, ret);
+	}
+
+	/** Items starting after from, up to and including to (either can be null for no limit), in
+	 *  order of start time. Filtered like getRunning(). */
+	public ArrayList<Item> getStarting(ZonedDateTime from, ZonedDateTime to) {
+		int i = from == null ? 0 : firstAfter(from.toInstant().toEpochMilli());
+		int end = to == null ? timeItems.length : firstAfter(to.toInstant().toEpochMilli());
+		ArrayList<Item> ret = new ArrayList<>();
+		for (; i < end; ++i) {
+			if (isVisible(timeItems[i])) {
+				ret.add(timeItems[i]);
+			}
+		}
+		return ret;
+	}
+
+	/* Index of the first item starting after t. */
+	private int firstAfter(long t) {
+		int lo = 0, hi = timeStarts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (timeStarts[mid] <= t) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/* Conflict tracking for starred items: starred is kept sorted by start time, and conflicts has
+	   for each of them the other starred items it overlaps with (also sorted). Updated by
+	   Item.setRemind() one item at a time, so only the items near it in time get looked at. */
+	private void addStarred(Item item) {
+		int pos = Collections.binarySearch(starred, item);
+		if (pos >= 0) {
+			return;
+		}
+		pos = -pos - 1;
+		starred.add(pos, item);
+		maxStarredLength = Math.max(maxStarredLength, (item.end - item.start) * 1000);
+
+		ArrayList<Item> mine = new ArrayList<>();
+		conflicts.put(item, mine);
+		for (Item other : starredNear(item)) {
+			if (other != item && other.overlaps(item)) {
+				mine.add(other);
+				ArrayList<Item> theirs = conflicts.get(other);
+				theirs.add(-Collections.binarySearch(theirs, item) - 1, item);
+			}
+		}
+	}
+
+	private void removeStarred(Item item) {
+		ArrayList<Item> mine = conflicts.remove(item);
+		if (mine == null) {
+			return;
+		}
+		starred.remove(item);
+		for (Item other : mine) {
+			conflicts.get(other).remove(item);
+		}
+	}
+
+	/* Starred items that could overlap with item: starting before it ends, and not more than the
+	   longest starred item's length before it starts. In order of start time. */
+	private List<Item> starredNear(Item item) {
+		long from = item.start * 1000 - maxStarredLength;
+		long to = item.end * 1000;
+		int lo = 0, hi = starred.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starred.get(mid).start * 1000 < from) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int end = lo;
+		while (end < starred.size() && starred.get(end).start * 1000 < to) {
+			end++;
+		}
+		return starred.subList(lo, end);
+	}
+
+	/* From scratch, after merge() may have moved things around. */
+	private void rebuildConflicts() {
+		starred = new ArrayList<>();
+		conflicts = new HashMap<>();
+		maxStarredLength = 0;
+		for (Item item : allItems.values()) {
+			if (item.remind) {
+				addStarred(item);
+			}
+		}
+	}
+
+	/** Starred items overlapping with item (which doesn't need to be starred itself), in order of
+	 *  start time. Don't modify. */
+	public List<Item> getConflicts(Item item) {
+		List<Item> ret0;
+		if (item.remind && (ret0 = conflicts.get(item)) != null) {
+			return ret0;
+		}
+		ArrayList<Item> ret = new ArrayList<>();
+		for (Item other : starredNear(item)) {
+			if (other.overlaps(item)) {
+				ret.add(other);
+			}
+		}
+		return ret;
+	}
+
+	/* The filter used by ItemList.getItems() and friends. */
+	private boolean isVisible(Item item) {
+		return (!item.isHidden() || showHidden) &&
+		       (curDay == null || (item.start >= curDaySec && item.end <= curDayEndSec));
+	}
+
+	/** Same as above but for a file already slurped into memory, which lets us skip parsing
+	 *  altogether if we have a snapshot of a previous parse of the exact same data. If not, parse
+	 *  as usual and write a snapshot for next time. snapshot can be null (=> just parse). */
+	public void loadSchedule(byte[] raw, String url_, File snapshot) throws IOException, LoadException {
+		sourceHash = hashify(raw);
+		// inTZ is part of the key since times without explicit tz depend on it.
+		String key = sourceHash + " " + inTZ.getId();
+
+		if (snapshot != null && snapshot.exists()) {
+			long start = System.nanoTime();
+			if (loadSnapshot(snapshot, url_, key)) {
+				Log.d("Schedule.loadSnapshot", "Loaded " + allItems.size() + " items from snapshot in " +
+				                               ((System.nanoTime() - start) / 1000000) + "ms");
+				return;
+			}
+		}
+
+		loadSchedule(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(raw),
+		                                                      StandardCharsets.UTF_8)), url_);
+		writeSnapshot(snapshot, key);
+	}
+
+	/** Same again but parsing straight from the stream, for when there's no point in checking for a
+	 *  snapshot first (no snapshot, or the data just came in fresh from the network). This way the
+	 *  parser (and the DayListener) gets going while the rest is still downloading. The bytes get
+	 *  hashed as they go by so we can still write the snapshot for next time. */
+	public void loadSchedule(InputStream raw, String url_, File snapshot) throws IOException, LoadException {
+		MessageDigest sha1;
+		try {
+			sha1 = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new LoadException("No SHA-1? " + e);
+		}
+		String tz = inTZ.getId();
+		DigestInputStream in = new DigestInputStream(raw, sha1);
+		loadSchedule(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), url_);
+		// Parsers don't necessarily read up to EOF, but the hash should cover all of the file.
+		byte[] buf = new byte[8192];
+		while (in.read(buf) > 0) {
+		}
+		sourceHash = hex(sha1.digest());
+		writeSnapshot(snapshot, sourceHash + " " + tz);
+	}
+
+	private void writeSnapshot(File snapshot, String key) {
+		if (snapshot != null) {
+			try {
+				saveSnapshot(snapshot, key);
+			} catch (IOException e) {
+				// Not fatal, we'll just parse again next time.
+				Log.w("Schedule.saveSnapshot", "Failed to write " + snapshot + ": " + e);
+				snapshot.delete();
+			}
+		}
+	}
+
+	/** Result of a merge(). Items are the resident (so patched) ones, removed ones are no longer
+	 *  part of the schedule. */
+	public static class ChangeSet {
+		public final ArrayList<Item> added = new ArrayList<>();
+		public final ArrayList<Item> removed = new ArrayList<>();
+		public final ArrayList<Item> changed = new ArrayList<>();
+		// Items that are still there but now known under another id (old → new), see cIdMap.
+		public final HashMap<String,String> renamed = new HashMap<>();
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && renamed.isEmpty();
+		}
+
+		public String toString() {
+			return "+" + added.size() + " -" + removed.size() + " ~" + changed.size() + " renamed " + renamed.size();
+		}
+	}
+
+	public interface ChangeListener {
+		void onScheduleChanged(Schedule sched, ChangeSet changes);
+	}
+
+	public void addChangeListener(ChangeListener l) {
+		if (!changeListeners.contains(l)) {
+			changeListeners.add(l);
+		}
+	}
+
+	public void removeChangeListener(ChangeListener l) {
+		changeListeners.remove(l);
+	}
+
+	/** Whether anything is still showing this schedule, see Giggity.trimSchedules(). */
+	public boolean hasChangeListeners() {
+		return !changeListeners.isEmpty();
+	}
+
+	protected void notifyChanged(ChangeSet changes) {
+		for (ChangeListener l : new ArrayList<>(changeListeners)) {
+			l.onScheduleChanged(this, changes);
+		}
+	}
+
+	/** Patch this (resident) schedule to match fresh, a new parse of the same schedule, instead of
+	 *  replacing it altogether. Items are matched by id, or through cIdMap on either side if the
+	 *  file started/stopped using guids. Item objects that survive stay the same objects, so
+	 *  anything holding on to them (views, reminders) stays valid. Must not race with anything
+	 *  else looking at this schedule, so call it from the UI thread. */
+	public ChangeSet merge(Schedule fresh) {
+		ChangeSet ret = new ChangeSet();
+		HashMap<String,Item> left = new HashMap<>(allItems);
+		HashMap<String,Item> pending = new HashMap<>();
+		HashMap<Item,Item> pairs = new HashMap<>();  // resident → fresh
+
+		for (Item f : fresh.allItems.values()) {
+			Item old = left.remove(f.id);
+			if (old == null && cIdMap.containsKey(f.id)) {
+				// We had the guid already but the new file only has the short id?
+				old = left.remove(cIdMap.get(f.id));
+			}
+			if (old != null) {
+				pairs.put(old, f);
+			} else {
+				pending.put(f.id, f);
+			}
+		}
+		// Or the other way around: the new file maps one of our old ids to its guid now.
+		for (Item old : new ArrayList<>(left.values())) {
+			String cid = fresh.cIdMap.get(old.id);
+			Item f;
+			if (cid != null && (f = pending.remove(cid)) != null) {
+				left.remove(old.id);
+				pairs.put(old, f);
+			}
+		}
+
+		for (Item old : left.values()) {
+			unlink(old);
+			// In memory only, the db keeps the flag in case the item comes back.
+			old.remind = false;
+			ret.removed.add(old);
+		}
+		for (HashMap.Entry<Item,Item> e : pairs.entrySet()) {
+			Item old = e.getKey(), f = e.getValue();
+			if (old.id.equals(f.id) && old.sameAs(f)) {
+				continue;
+			}
+			if (!old.id.equals(f.id)) {
+				ret.renamed.put(old.id, f.id);
+			}
+			unlink(old);
+			old.copyFrom(f);
+			link(old, f);
+			ret.changed.add(old);
+		}
+		for (Item f : pending.values()) {
+			Item item = new Item(f.id, f.title, f.start, f.end, f.tz);
+			item.copyFrom(f);
+			link(item, f);
+			ret.added.add(item);
+		}
+		cIdMap.putAll(fresh.cIdMap);
+
+		if (ret.isEmpty()) {
+			return ret;
+		}
+
+		firstTime = lastTime = null;
+		languages.clear();
+		for (Item item : allItems.values()) {
+			if (firstTime == null || item.start < firstTime.toEpochSecond())
+				firstTime = item.startIn();
+			if (lastTime == null || item.end > lastTime.toEpochSecond())
+				lastTime = item.endIn();
+			if (item.getLanguage() != null) {
+				languages.add(item.getLanguage());
+			}
+		}
+		buildDayList();
+		setDay(curDay == null || dayList.isEmpty() ? -1 : curDayNum);
+		rebuildConflicts();
+		freeze();
+
+		Log.i("Schedule.merge", "Merged " + fresh.getUrl() + ": " + ret);
+		return ret;
+	}
+
+	/* Take an item out of everything that's sorted on it, before it gets modified. */
+	private void unlink(Item item) {
+		allItems.remove(item.id);
+		keyMap.remove(item.getKey());
+		if (item.line != null) {
+			item.line.removeItem(item);
+		}
+		if (item.track != null) {
+			item.track.removeItem(item);
+			item.track = null;
+		}
+	}
+
+	/* And put it back in (into the room/track that fresh's version of it is in). */
+	private void link(Item item, Item f) {
+		Line line = null;
+		for (Line l : tents) {
+			if (l.title.equals(f.line.title)) {
+				line = l;
+				break;
+			}
+		}
+		if (line == null) {
+			line = new Line(f.line.title);
+			tents.add(line);
+		}
+		line.addItem(item);
+		if (f.track != null) {
+			item.setTrack(f.track.title);
+		}
+	}
+
+	/* Squeeze a freshly loaded (or merged) schedule into its compact form: item arrays of all rooms
+	   and tracks sorted and trimmed, and strings/links that repeat across many items (languages,
+	   link titles like "Video recording (WebM/VP9)") shared instead of stored once per item.
+	   Speaker names are already shared through speakerNames. Adding/removing items afterwards is
+	   still possible (merge()), it just costs a copy of the array involved. */
+	private void freeze() {
+		long start = System.nanoTime();
+		HashMap<String,String> strs = new HashMap<>();
+		HashMap<String,Link> linkPool = new HashMap<>();
+		int n = 0;
+		for (Track track : tracks.values()) {
+			track.sorted();
+		}
+		for (Line line : tents) {
+			for (Item item : line.sorted()) {
+				item.language = intern(strs, item.language);
+				item.subtitle = intern(strs, item.subtitle);
+				if (item.links == null) {
+					continue;
+				}
+				for (int i = 0; i < item.links.length; ++i) {
+					Link l = item.links[i];
+					String k = l.url + "\n" + l.title + "\n" + l.type;
+					Link shared = linkPool.get(k);
+					if (shared == null) {
+						l.url = intern(strs, l.url);
+						l.title = intern(strs, l.title);
+						l.type = intern(strs, l.type);
+						linkPool.put(k, shared = l);
+					}
+					item.links[i] = shared;
 				}
 			}
-			day = dayEnd;
-			dayEnd = dayEnd.plusDays(1);
+			n += line.sorted().length;
 		}
+		// Only needed while adding speakers, speakerId() recreates it if that happens again.
+		speakerIds = null;
+		speakerNames.trimToSize();
+		Log.d("Schedule.freeze", n + " items, " + speakerNames.size() + " speakers, " +
+		                         linkPool.size() + " links in " + ((System.nanoTime() - start) / 1000000) + "ms");
+	}
 
-		// Discard track info if there's just one, on all talks. (Bornhack)
-		if (getTracks() != null && getTracks().size() == 1 &&
-		    getTracks().iterator().next().getItems().size() == allItems.size()) {
-			tracks.clear();
-			for (Item it : allItems.values()) {
-				it.track = null;
+	private static String intern(HashMap<String,String> pool, String s) {
+		if (s == null) {
+			return null;
+		}
+		String ret = pool.get(s);
+		if (ret == null) {
+			pool.put(s, ret = s);
+		}
+		return ret;
+	}
+
+	private int speakerId(String name) {
+		if (speakerIds == null) {
+			speakerIds = new HashMap<>();
+			for (int i = 0; i < speakerNames.size(); ++i) {
+				speakerIds.put(speakerNames.get(i), i);
+			}
+		}
+		Integer ret = speakerIds.get(name);
+		if (ret == null) {
+			ret = speakerNames.size();
+			speakerNames.add(name);
+			speakerIds.put(name, ret);
+		}
+		return ret;
+	}
+
+	/** For progressive loading. Gets called on the loading thread every time the parser has read
+	 *  another day completely. Only for formats that are grouped by day (Pentabarf XML and Frab
+	 *  JSON), others (or snapshots) just finish loading without calling this. Days without any
+	 *  items are skipped, like getDays() drops them. */
+	public interface DayListener {
+		void onDayLoaded(Schedule sched, LocalDate day);
+	}
+
+	public void setDayListener(DayListener l) {
+		dayListener = l;
+	}
+
+	private void dayLoaded(LocalDate day) {
+		if (dayListener != null && day != null && allItems.size() > dayListenerItems) {
+			dayListenerItems = allItems.size();
+			dayListener.onDayLoaded(this, day);
+		}
+	}
+
+	/** Stand-alone copy of everything loaded so far, for showing while the rest still loads. Only
+	 *  call this on the loading thread, from a DayListener. Just a plain Schedule, so nothing in it
+	 *  is connected to the db, changes to it won't go anywhere. null if there's nothing yet. */
+	public Schedule preview() {
+		Schedule ret = new Schedule();
+		ret.url = url;
+		ret.title = title != null ? title : url;
+		ret.inTZ = inTZ;
+		ret.outTZ = outTZ;
+		ret.dayChange = dayChange;
+		for (Line line : tents) {
+			Line l = ret.new Line(line.title);
+			for (Item item : line.sorted()) {
+				Item copy = ret.new Item(item.id, item.title, item.start, item.end, item.tz);
+				copy.copyFrom(item);
+				l.addItem(copy);
+				if (item.track != null) {
+					copy.setTrack(item.track.title);
+				}
 			}
+			ret.tents.add(l);
 		}
+		if (ret.allItems.isEmpty()) {
+			return null;
+		}
+		ret.buildDayList();
+		return ret;
+	}
 
+	private void logMenuJson() {
 		try {
 			String menu = new JSONObject()
-					               .put("url", url_)
+					               .put("url", url)
 					               .put("title", getTitle())
 					               .put("start", day0List.getFirst().format(DateTimeFormatter.ISO_LOCAL_DATE))
 					               .put("end", day0List.getLast().format(DateTimeFormatter.ISO_LOCAL_DATE)).toString();
@@ -197,6 +839,458 @@ public class Schedule implements Serializable {
 		}
 	}
 
+	/* Snapshot format, all big-endian: magic, version, key, url, then a string table that everything
+	   after it refers to by index (-1 == null), then conference info, rooms, tracks, items (grouped
+	   by room), cIdMap and day list. Only the static schedule data goes in, anything from the db or
+	   metadata JSON gets applied on top afterwards just like after a normal parse. */
+	private static class SnapshotStrings {
+		private HashMap<String,Integer> ids = new HashMap<>();
+		private ArrayList<String> list = new ArrayList<>();
+
+		int id(String s) {
+			if (s == null) {
+				return -1;
+			}
+			Integer ret = ids.get(s);
+			if (ret == null) {
+				ret = list.size();
+				ids.put(s, ret);
+				list.add(s);
+			}
+			return ret;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(list.size());
+			for (String s : list) {
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+		}
+
+		static String[] read(ByteBuffer in) {
+			String[] ret = new String[count(in, 4)];
+			byte[] b = new byte[256];
+			for (int i = 0; i < ret.length; ++i) {
+				int len = count(in, 1);
+				if (len > b.length) {
+					b = new byte[Math.max(len, b.length * 2)];
+				}
+				in.get(b, 0, len);
+				ret[i] = new String(b, 0, len, StandardCharsets.UTF_8);
+			}
+			return ret;
+		}
+
+		static void writeRaw(DataOutputStream out, String s) throws IOException {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		static String readRaw(ByteBuffer in) {
+			byte[] b = new byte[count(in, 1)];
+			in.get(b);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+	}
+
+	/* Reads the number of things of at least size bytes each that follow. Anything that couldn't
+	   possibly fit in the rest of the file means it's corrupt, so bail out before allocating. */
+	private static int count(ByteBuffer in, int size) {
+		int n = in.getInt();
+		if (n < 0 || n > in.remaining() / size) {
+			throw new BufferUnderflowException();
+		}
+		return n;
+	}
+
+	/** Write a snapshot of this schedule to fn. Afterwards, descriptions get read from it instead of
+	 *  kept on the heap, so do this before anything else starts using the schedule. */
+	public void saveSnapshot(File fn, String key) throws IOException {
+		SnapshotStrings strs = new SnapshotStrings();
+		ByteArrayOutputStream bodyBuf = new ByteArrayOutputStream(allItems.size() * 256);
+		DataOutputStream body = new DataOutputStream(bodyBuf);
+		// Descriptions go into a blob of their own at the end, see descBlob.
+		ByteArrayOutputStream descs = new ByteArrayOutputStream(allItems.size() * 1024);
+
+		body.writeInt(strs.id(title));
+		body.writeInt(strs.id(inTZ.getId()));
+		body.writeInt(dayChange.toSecondOfDay());
+
+		body.writeInt(tents.size());
+		for (Line line : tents) {
+			body.writeInt(strs.id(line.title));
+		}
+		ArrayList<Track> trackList = new ArrayList<>(tracks.values());
+		HashMap<Track,Integer> trackIds = new HashMap<>();
+		body.writeInt(trackList.size());
+		for (Track track : trackList) {
+			trackIds.put(track, trackIds.size());
+			body.writeInt(strs.id(track.title));
+		}
+
+		for (Line line : tents) {
+			Item[] items = line.sorted();
+			body.writeInt(items.length);
+			for (Item item : items) {
+				body.writeInt(strs.id(item.id));
+				body.writeInt(strs.id(item.title));
+				body.writeInt(strs.id(item.subtitle));
+				String desc = item.rawDescription();
+				if (desc != null) {
+					byte[] b = desc.getBytes(StandardCharsets.UTF_8);
+					item.descOff = descs.size();
+					item.descLen = b.length;
+					descs.write(b);
+				} else {
+					item.descOff = item.descLen = 0;
+				}
+				body.writeInt(desc == null ? -1 : item.descOff);
+				body.writeInt(item.descLen);
+				body.writeBoolean(item.descriptionHtml);
+				body.writeLong(item.start);
+				body.writeLong(item.end);
+				body.writeInt(strs.id(item.tz.getId()));
+				body.writeInt(item.track != null ? trackIds.get(item.track) : -1);
+				body.writeInt(strs.id(item.language));
+				body.writeInt(strs.id(item.webLink));
+				body.writeInt(item.links != null ? item.links.length : 0);
+				if (item.links != null) {
+					for (Link link : item.links) {
+						body.writeInt(strs.id(link.url));
+						body.writeInt(strs.id(link.title));
+						body.writeInt(strs.id(link.type));
+					}
+				}
+				body.writeInt(item.speakers != null ? item.speakers.length : 0);
+				if (item.speakers != null) {
+					for (int speaker : item.speakers) {
+						body.writeInt(strs.id(speakerNames.get(speaker)));
+					}
+				}
+			}
+		}
+
+		body.writeInt(cIdMap.size());
+		for (HashMap.Entry<String,String> e : cIdMap.entrySet()) {
+			body.writeInt(strs.id(e.getKey()));
+			body.writeInt(strs.id(e.getValue()));
+		}
+
+		body.writeInt(dayList.size());
+		body.writeInt(strs.id(dayList.isEmpty() ? null : dayList.get(0).getZone().getId()));
+		for (ZonedDateTime day : dayList) {
+			body.writeLong(day.toEpochSecond());
+		}
+		body.flush();
+
+		// Write to a temp file + rename so a crash halfway can't leave a truncated snapshot. A
+		// unique one, since two loads of the same URL (reload(), or a load falling back to the
+		// cached copy) may be writing at the same time.
+		fn.getParentFile().mkdirs();
+		File tmp = File.createTempFile(fn.getName(), ".tmp", fn.getParentFile());
+		try {
+			long descStart;
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(SNAPSHOT_VERSION);
+				SnapshotStrings.writeRaw(out, key);
+				SnapshotStrings.writeRaw(out, url);
+				strs.write(out);
+				bodyBuf.writeTo(out);
+				out.writeInt(descs.size());
+				descStart = out.size();
+				descs.writeTo(out);
+			}
+
+			// And now that it's on disk, drop our copies of the descriptions. Mapped before the
+			// rename, since by the time we'd open fn it may be another writer's file already.
+			try (RandomAccessFile f = new RandomAccessFile(tmp, "r")) {
+				setDescBlob(f.getChannel().map(FileChannel.MapMode.READ_ONLY, descStart, descs.size()));
+			}
+			if (!tmp.renameTo(fn)) {
+				throw new IOException("Could not rename " + tmp);
+			}
+		} finally {
+			// No-op if the rename worked.
+			tmp.delete();
+		}
+	}
+
+	/* Start getting descriptions from blob, for all items that have their offset set already. */
+	private void setDescBlob(ByteBuffer blob) {
+		descBlob = blob;
+		synchronized (descCache) {
+			descCache.clear();
+		}
+		for (Line line : tents) {
+			for (Item item : line.sorted()) {
+				if (item.descLen > 0) {
+					item.description = null;
+				}
+			}
+		}
+	}
+
+	/* Description of an item that has it in descBlob. Goes through descCache if cache is set. */
+	private String readDescription(Item item, boolean cache) {
+		String ret;
+		if (cache) {
+			synchronized (descCache) {
+				if ((ret = descCache.get(item)) != null) {
+					return ret;
+				}
+			}
+		}
+		// duplicate() since position is per buffer and this can run on several threads at once.
+		ByteBuffer b = descBlob.duplicate();
+		b.position(item.descOff);
+		byte[] raw = new byte[item.descLen];
+		b.get(raw);
+		ret = new String(raw, StandardCharsets.UTF_8);
+		if (cache) {
+			synchronized (descCache) {
+				descCache.put(item, ret);
+			}
+		}
+		return ret;
+	}
+
+	/** Restore the result of a previous parse. Returns false (and leaves this object untouched) if
+	 *  the file is unusable or was made for different input data (key mismatch). */
+	public boolean loadSnapshot(File fn, String url_, String key) {
+		ByteBuffer in;
+		try (RandomAccessFile f = new RandomAccessFile(fn, "r")) {
+			// Mapping (vs. reading) means we're not copying the whole thing into the heap first.
+			in = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+		} catch (IOException e) {
+			Log.w("Schedule.loadSnapshot", "Can't open " + fn + ": " + e);
+			return false;
+		}
+
+		try {
+			if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION ||
+			    !SnapshotStrings.readRaw(in).equals(key) || !SnapshotStrings.readRaw(in).equals(url_)) {
+				Log.d("Schedule.loadSnapshot", "Snapshot is stale, reparsing");
+				return false;
+			}
+
+			url = url_;
+			String[] strs = SnapshotStrings.read(in);
+			title = str(strs, in.getInt());
+			inTZ = ZoneId.of(str(strs, in.getInt()));
+			dayChange = LocalTime.ofSecondOfDay(in.getInt());
+
+			Line[] lines = new Line[count(in, 4)];
+			for (int i = 0; i < lines.length; ++i) {
+				lines[i] = new Line(str(strs, in.getInt()));
+				tents.add(lines[i]);
+			}
+			Track[] trackList = new Track[count(in, 4)];
+			for (int i = 0; i < trackList.length; ++i) {
+				trackList[i] = new Track(str(strs, in.getInt()));
+				tracks.put(trackList[i].title, trackList[i]);
+			}
+
+			for (Line line : lines) {
+				int n = count(in, 4);
+				for (int i = 0; i < n; ++i) {
+					String id = str(strs, in.getInt()), itemTitle = str(strs, in.getInt());
+					String subtitle = str(strs, in.getInt());
+					int descOff = in.getInt(), descLen = in.getInt();
+					boolean descHtml = in.get() != 0;
+					long start = in.getLong(), end = in.getLong();
+					ZoneId tz = ZoneId.of(str(strs, in.getInt()));
+					Item item = new Item(id, itemTitle, start, end, tz);
+					item.subtitle = subtitle;
+					if (descOff >= 0) {
+						// Empty ones don't need the blob.
+						item.description = descLen == 0 ? "" : null;
+						item.descOff = descOff;
+						item.descLen = descLen;
+					}
+					item.descriptionHtml = descHtml;
+					int track = in.getInt();
+					item.language = str(strs, in.getInt());
+					item.webLink = str(strs, in.getInt());
+					int nLinks = count(in, 12);
+					if (nLinks > 0) {
+						item.links = new Link[nLinks];
+						for (int j = 0; j < nLinks; ++j) {
+							Link link = new Link();
+							link.url = str(strs, in.getInt());
+							link.title = str(strs, in.getInt());
+							link.type = str(strs, in.getInt());
+							item.links[j] = link;
+						}
+					}
+					int nSpeakers = count(in, 4);
+					if (nSpeakers > 0) {
+						item.speakers = new int[nSpeakers];
+						for (int j = 0; j < nSpeakers; ++j) {
+							item.speakers[j] = speakerId(str(strs, in.getInt()));
+						}
+					}
+					line.addItem(item);
+					if (track >= 0) {
+						item.track = trackList[track];
+						item.track.addItem(item);
+					}
+				}
+			}
+
+			int n = count(in, 8);
+			for (int i = 0; i < n; ++i) {
+				cIdMap.put(str(strs, in.getInt()), str(strs, in.getInt()));
+			}
+
+			n = count(in, 8);
+			String dayTz = str(strs, in.getInt());
+			for (int i = 0; i < n; ++i) {
+				dayList.add(ZonedDateTime.ofInstant(Instant.ofEpochSecond(in.getLong()), ZoneId.of(dayTz)));
+			}
+
+			n = in.getInt();
+			if (n < 0 || n > in.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			ByteBuffer blob = in.slice();
+			blob.limit(n);
+			for (Line line : lines) {
+				for (Item item : line.sorted()) {
+					if (item.descLen < 0 || item.descOff + item.descLen > n) {
+						throw new BufferUnderflowException();
+					}
+				}
+			}
+			descBlob = blob;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | DateTimeException e) {
+			Log.e("Schedule.loadSnapshot", "Corrupt snapshot " + fn + ": " + e);
+			clear();
+			return false;
+		}
+
+		if (allItems.isEmpty()) {
+			clear();
+			return false;
+		}
+		buildDayIndex();
+		freeze();
+
+		logMenuJson();
+		return true;
+	}
+
+	private static String str(String[] strs, int id) {
+		return id >= 0 ? strs[id] : null;
+	}
+
+	/* Back to a blank state, only used when bailing out of a half-read snapshot. */
+	private void clear() {
+		title = null;
+		tents.clear();
+		allItems.clear();
+		keyMap.clear();
+		cIdMap.clear();
+		tracks.clear();
+		languages.clear();
+		speakerNames.clear();
+		speakerIds = null;
+		descBlob = null;
+		dayList.clear();
+		buildDayIndex();
+		firstTime = lastTime = null;
+	}
+
+	/** A file format we can read. Formats are tried in order of priority (highest first), the first
+	 *  one whose sniff() likes the start of the file gets to load it. */
+	public static abstract class Format {
+		private String name;
+		private int priority;
+
+		public Format(String name_, int priority_) {
+			name = name_;
+			priority = priority_;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/** head is the first KByte of the file, lower-cased. */
+		public abstract boolean sniff(String head);
+
+		public abstract void load(Schedule sched, BufferedReader in) throws IOException, LoadException;
+	}
+
+	private static final ArrayList<Format> formats = new ArrayList<>();
+
+	public static void registerFormat(Format format) {
+		synchronized (formats) {
+			int i = 0;
+			while (i < formats.size() && formats.get(i).getPriority() >= format.getPriority()) {
+				i++;
+			}
+			formats.add(i, format);
+		}
+	}
+
+	/* Yeah, I know these sniffers are ugly, and actually reasonably fragile. For now it
+	 * just seems somewhat more efficient than doing something smarter, and
+	 * I want to avoid doing XML-specific stuff here already. */
+	static {
+		registerFormat(new Format("xCal", 40) {
+			@Override
+			public boolean sniff(String head) {
+				return head.contains("<icalendar") && head.contains("<vcalendar");
+			}
+
+			@Override
+			public void load(Schedule sched, BufferedReader in) {
+				sched.loadXcal(in);
+			}
+		});
+		registerFormat(new Format("Pentabarf", 30) {
+			@Override
+			public boolean sniff(String head) {
+				return head.contains("<schedule") && head.contains("<conference");
+			}
+
+			@Override
+			public void load(Schedule sched, BufferedReader in) {
+				sched.loadPentabarf(in);
+			}
+		});
+		registerFormat(new Format("Frab JSON", 20) {
+			@Override
+			public boolean sniff(String head) {
+				return head.trim().startsWith("{") && head.contains("\"schedule\"");
+			}
+
+			@Override
+			public void load(Schedule sched, BufferedReader in) {
+				sched.loadFrabJson(in);
+			}
+		});
+		registerFormat(new Format("iCal", 10) {
+			@Override
+			public boolean sniff(String head) {
+				return head.contains("begin:vcalendar");
+			}
+
+			@Override
+			public void load(Schedule sched, BufferedReader in) {
+				sched.loadIcal(in);
+			}
+		});
+	}
+
 	public String getString(int id) {
 		// To be overridden by ScheduleUI, or ignored otherwise?
 		return "String id=" + id;
@@ -225,19 +1319,28 @@ public class Schedule implements Serializable {
 	}
 
 	public static String hashify(String url) {
+		return hashify(url.getBytes());
+	}
+
+	public static String hashify(byte[] data) {
 		String ret = "";
 		try {
 			/* md5, sha1... small diff I guess? (No clue how this evolved!) */
 			MessageDigest md5 = MessageDigest.getInstance("SHA-1");
-			md5.update(url.getBytes());
-			byte[] raw = md5.digest();
-			for (int i = 0; i < raw.length; i ++)
-				ret += String.format("%02x", raw[i]);
+			md5.update(data);
+			ret = hex(md5.digest());
 		} catch (NoSuchAlgorithmException e) {
 			// WTF mate
 		}
 		return ret;
 	}
+
+	private static String hex(byte[] raw) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < raw.length; i ++)
+			ret.append(String.format("%02x", raw[i]));
+		return ret.toString();
+	}
 	
 	public LinkedList<ZonedDateTime> getDays() {
 		return day0List;
@@ -256,6 +1359,11 @@ public class Schedule implements Serializable {
 		this.inTZ = inTZ;
 	}
 
+	public ZoneId getInTZ() {
+		return inTZ;
+	}
+
+	/** Items cache their times in outTZ, those caches get refreshed on first use after this. */
 	public void setOutTZ(ZoneId outTZ) {
 		this.outTZ = outTZ;
 	}
@@ -266,9 +1374,11 @@ public class Schedule implements Serializable {
 	
 	// Returns DATE in EVENT timezone. Don't use for anything other than date display purposes.
 	public ZonedDateTime setDay(int day) {
+		version++;
 		if (day == -1) {
 			curDayNum = day;
 			curDay = curDayEnd = null;
+			curDaySec = curDayEndSec = 0;
 			dayFirstTime = firstTime;
 			dayLastTime = lastTime;
 			return null;
@@ -276,17 +1386,10 @@ public class Schedule implements Serializable {
 			curDayNum = day % dayList.size();
 			curDay = dayList.get(curDayNum);
 			curDayEnd = curDay.plusDays(1);
-
-			dayFirstTime = dayLastTime = null;
-			for (Schedule.Item item : allItems.values()) {
-				if (item.startTime.compareTo(curDay) >= 0 &&
-						item.endTime.compareTo(curDayEnd) <= 0) {
-					if (dayFirstTime == null || item.startTime.isBefore(dayFirstTime))
-						dayFirstTime = item.startTime;
-					if (dayLastTime == null || item.endTime.isAfter(dayLastTime))
-						dayLastTime = item.endTime;
-				}
-			}
+			curDaySec = curDay.toEpochSecond();
+			curDayEndSec = curDayEnd.toEpochSecond();
+			dayFirstTime = dayFirst[curDayNum];
+			dayLastTime = dayLast[curDayNum];
 
 			return day0List.get(curDayNum);
 		}
@@ -306,14 +1409,13 @@ public class Schedule implements Serializable {
 
 	/* Sets day to one overlapping given moment in time and returns day number, or -1 if no match. */
 	public int setDay(ZonedDateTime now) {
-		int i = 0;
-		for (ZonedDateTime day : dayList) {
-			ZonedDateTime dayEnd = day.plusDays(1);
-			if (day.isBefore(now) && dayEnd.isAfter(now)) {
-				setDay(i);
-				return i;
-			}
-			i ++;
+		long t = now.toInstant().toEpochMilli();
+		// Last day starting *before* now.
+		int i = Arrays.binarySearch(dayStarts, t);
+		i = i >= 0 ? i - 1 : -i - 2;
+		if (i >= 0 && dayEnds[i] > t) {
+			setDay(i);
+			return i;
 		}
 		return -1;
 	}
@@ -361,14 +1463,31 @@ public class Schedule implements Serializable {
 	}
 	
 	private void loadPentabarf(BufferedReader in) {
-		loadXml(in, new PentabarfParser());
+		PentabarfParser parser = new PentabarfParser();
+		loadXml(in, parser);
+		parser.ev.finish();
 	}
 	
-	private void loadXml(BufferedReader in, ContentHandler parser) {
+	private void loadFrabJson(BufferedReader in) {
+		try {
+			new FrabJsonParser(in).parse();
+			in.close();
+		} catch (IOException | RuntimeException e) {
+			Log.e("Schedule.loadFrabJson", "JSON parse exception: " + e);
+			e.printStackTrace();
+			throw new LoadException("JSON parsing problem: " + e);
+		}
+	}
+
+	private void loadXml(BufferedReader in, PullParser<?> parser) {
 		try {
-			XMLReader reader = XMLReaderFactory.createXMLReader();
-			reader.setContentHandler(parser);
-			reader.parse(new InputSource(in));
+			// Used to go through SAX (via the xmlpull SAX2 driver on Android), pulling directly
+			// saves a layer and lots of garbage.
+			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			XmlPullParser xpp = factory.newPullParser();
+			xpp.setInput(in);
+			parser.parse(xpp);
 			in.close();
 		} catch (Exception e) {
 			Log.e("Schedule.loadXml", "XML parse exception: " + e);
@@ -383,62 +1502,38 @@ public class Schedule implements Serializable {
 		 * Tested against http://yapceurope.lv/ye2011/timetable.ics and the FOSDEM
 		 * 2011 iCal export (but please don't use this unless the event offers
 		 * nothing else). */ 
-		XcalParser p = new XcalParser();
-		String line, s;
-		int lnum = -1;  // Note: Code below around line continuation results in "somewhat" funky flow and lnum value!
-		// Also, I've noticed that the JRES schedule (see jres_2022.ics test file) has spurious CRCRLF (yes, double CR) newlines which messes up the line number counting but meh.
+		VEvent ev = new VEvent();
+		boolean inEvent = false;
+		IcalLexer lex = new IcalLexer(in);
 		try {
-			line = "";
-			while (true) {
-				++lnum;
-				s = in.readLine();
-				//Log.d("icalRead", s);
-				if (s != null && s.startsWith(" ")) {
-					line += s.substring(1);
-					/* Line continuation. Get the rest before we process anything. */
-					continue;
-				} else if (line.contains(":")) {
-					String[] split = line.split(":", 2);
-					String key, value;
-					key = split[0].toLowerCase();
-					value = split[1];
-					if (key.equals("begin")) {
-						/* Some blocks (including vevent, the only one we need)
-						 * have proper begin:vevent and end:vevent dividers. */
-						p.startElement("", value.toLowerCase(), "", null);
-					} else if (key.equals("end")) {
-						p.endElement("", value.toLowerCase(), "");
-					} else {
-						key = null;
-						AttributesImpl at = new AttributesImpl();
-						for (String bit : split[0].split(";")) {
-							if (key == null) {
-								key = bit.toLowerCase();
-								continue;
-							}
-							String[] kv = bit.split("=", 2);
-							if (kv.length == 2) {
-								at.addAttribute("", kv[0].toLowerCase(), kv[0].toLowerCase(), "", kv[1]);
-							}
-						}
-						value = value.replace("\\n", "\n").replace("\\,", ",")
-						             .replace("\\;", ";").replace("\\\\", "\\");
-						/* Fake <key>value</key> */
-						p.startElement("", key, "", at);
-						p.characters(value.toCharArray(), 0, value.length());
-						p.endElement("", key, "");
+			while (lex.next()) {
+				int prop;
+				if (lex.nameIs("begin")) {
+					/* Some blocks (including vevent, the only one we need)
+					 * have proper begin:vevent and end:vevent dividers. */
+					if (lex.valueIs("vevent")) {
+						ev.clear();
+						inEvent = true;
 					}
-				} else if (lnum > 0){
-					// Log.d("ical", "No clue what to do with line " + lnum + ": " + s);
+				} else if (lex.nameIs("end")) {
+					if (lex.valueIs("vevent") && inEvent) {
+						ev.add();
+						inEvent = false;
+					}
+				} else if (lex.nameIs("x-wr-calname")) {
+					title = lex.value();
+				} else if (lex.nameIs("x-wr-caldesc")) {
+					// Fall back to this field if necessary, calname is likely more suitable (brief)
+					if (title == null) {
+						title = lex.value();
+					}
+				} else if (inEvent && (prop = lex.nameIn(veventProps)) != -1) {
+					ev.set(prop, lex.value(), prop == VEvent.DTSTART ? lex.param("tzid") : null);
 				}
-				if (s != null)
-					line = s;
-				else
-					break;
 			}
-		} catch (IOException|SAXException|NullPointerException e) {
+		} catch (IOException|RuntimeException e) {
 			e.printStackTrace();
-			throw new LoadException("Read error at line " + lnum + ": " + e);
+			throw new LoadException("Read error at line " + lex.getLineNumber() + ": " + e);
 		}
 	}
 
@@ -512,11 +1607,62 @@ public class Schedule implements Serializable {
 		}
 	}
 
+	/** True if any item is starred (getRemind()). */
+	public boolean hasStarred() {
+		return !starred.isEmpty();
+	}
+
+	/** Rough guess of how much heap this schedule takes, in bytes. Only meant for comparing
+	 *  schedules with each other and some memory budget, so the per-object numbers below are
+	 *  ballpark figures for a 64-bit ART, not measurements. Descriptions in descBlob don't count,
+	 *  that's mapped file, not heap. */
+	public long estimateSize() {
+		long ret = 1024;
+		for (Item item : allItems.values()) {
+			// Item itself + its HashMap entries (allItems, keyMap, its Line and maybe Track).
+			ret += 200;
+			ret += stringSize(item.id) + stringSize(item.title) + stringSize(item.subtitle) +
+			       stringSize(item.webLink) + stringSize(item.description);
+			if (item.speakers != null) {
+				ret += 16 + 4 * item.speakers.length;
+			}
+			if (item.links != null) {
+				ret += 16 + 8 * item.links.length;
+			}
+		}
+		for (String name : speakerNames) {
+			ret += stringSize(name);
+		}
+		// Day and time indexes, with an Item reference and a few longs per item.
+		ret += (8 * 2 + 8 * 3) * allItems.size();
+		return ret;
+	}
+
+	private static long stringSize(String s) {
+		// Object header + fields + the char array (Latin-1 strings are one byte per char on
+		// newer ART, but let's not bet on that).
+		return s == null ? 0 : 40 + 2 * s.length();
+	}
+
+	/** Saves whatever changed since the last commit(). Only looks at the items that actually did,
+	 *  so it's cheap to call often (like on every onPause()). */
 	public void commit() {
-		Log.d("Schedule", "Saving all changes to the database");
-		for (Schedule.Item item : allItems.values()) {
-			item.commit();
+		ArrayList<Item> items;
+		synchronized (dirty) {
+			if (dirty.isEmpty()) {
+				return;
+			}
+			items = new ArrayList<>(dirty.size());
+			for (Item item : dirty) {
+				// Skip anything a merge() has dropped meanwhile.
+				if (allItems.get(item.id) == item) {
+					items.add(item);
+				}
+			}
+			dirty.clear();
 		}
+		Log.d("Schedule", "Saving " + items.size() + " changed item(s) to the database");
+		applyItems(items);
 	}
 
 	public String getUrl() {
@@ -541,6 +1687,32 @@ public class Schedule implements Serializable {
 		return allItems.get(id);
 	}
 
+	public Item getItemByKey(long key) {
+		return keyMap.get(key);
+	}
+
+	/** For passing lists of items around in Intents. */
+	public static long[] getKeys(Collection<Item> items) {
+		long[] ret = new long[items.size()];
+		int i = 0;
+		for (Item item : items) {
+			ret[i++] = item.getKey();
+		}
+		return ret;
+	}
+
+	/** And back, skipping any that no longer exist. */
+	public ArrayList<Item> getItemsByKey(long[] keys) {
+		ArrayList<Item> ret = new ArrayList<>();
+		for (long key : keys) {
+			Item item = keyMap.get(key);
+			if (item != null) {
+				ret.add(item);
+			}
+		}
+		return ret;
+	}
+
 	public String getCId(String id) {
 		return cIdMap.get(id);
 	}
@@ -580,7 +1752,10 @@ public class Schedule implements Serializable {
 	public Collection<String> getLanguages() { return languages; }
 
 	public void setShowHidden(boolean showHidden) {
-		this.showHidden = showHidden;
+		if (showHidden != this.showHidden) {
+			this.showHidden = showHidden;
+			version++;
+		}
 	}
 
 	public boolean getShowHidden() {
@@ -639,21 +1814,68 @@ public class Schedule implements Serializable {
 		// example reminders, etc.
 	}
 
-	private class XcalParser implements ContentHandler {
-		private HashMap<String,Schedule.Line> tentMap;
-		private HashMap<String,String> eventData;
-		private HashMap<String,Attributes> eventDataAttr;
-		private String curString;
+	/* Same for a batch of items, from commit(). ScheduleUI saves them in one go. */
+	protected void applyItems(Collection<Item> items) {
+		for (Item item : items) {
+			applyItem(item);
+		}
+	}
 
-		DateTimeFormatter dfUtc, dfLocal;
+	private static final String[] veventProps = {"uid", "summary", "location", "dtstart", "dtend",
+	                                             "duration", "description", "url"};
 
-		public XcalParser() {
-			tentMap = new HashMap<String,Schedule.Line>();
+	/* Properties of one VEVENT, filled in by either the xCal or the iCal parser. Reused for all
+	   events in a file, clear() between them. */
+	private class VEvent {
+		private String uid, summary, location, dtStart, dtStartTz, dtEnd, duration, description, url;
 
+		private HashMap<String,Schedule.Line> tentMap = new HashMap<>();
+		private HashMap<String,Duration> durations = new HashMap<>();
+		private DateTimeFormatter dfUtc, dfLocal;
+
+		public VEvent() {
 			dfUtc = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneId.of("UTC"));
 			dfLocal = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss").withZone(inTZ);
 		}
 
+		public void clear() {
+			uid = summary = location = dtStart = dtStartTz = dtEnd = duration = description = url = null;
+		}
+
+		/* Index into veventProps, which is what set() expects. */
+		static final int UID = 0, SUMMARY = 1, LOCATION = 2, DTSTART = 3, DTEND = 4, DURATION = 5,
+		                 DESCRIPTION = 6, URL = 7;
+
+		public void set(int prop, String value, String tzid) {
+			switch (prop) {
+				case UID:
+					uid = value;
+					break;
+				case SUMMARY:
+					summary = value;
+					break;
+				case LOCATION:
+					location = value;
+					break;
+				case DTSTART:
+					dtStart = value;
+					dtStartTz = tzid;
+					break;
+				case DTEND:
+					dtEnd = value;
+					break;
+				case DURATION:
+					duration = value;
+					break;
+				case DESCRIPTION:
+					description = value;
+					break;
+				case URL:
+					url = value;
+					break;
+			}
+		}
+
 		private ZonedDateTime parseTime(String s, String tz) throws ParseException {
 			TemporalAccessor ret;
 			try {
@@ -669,161 +1891,289 @@ public class Schedule implements Serializable {
 			}
 		}
 
-		/* Yay I'll just write my own parser... Spec is at https://www.kanzaki.com/docs/ical/duration-t.html
-		   Don't feel like importing a non-GPL library for just this. Also, returning an int (seconds) instead
-		   of some kind of timedelta since the Java/Android version I'm targeting (<8?) doesn't have one yet.
-		 */
 		private Duration parseDuration(String durSpec) {
-			int ret = 0;
-			Matcher m = Pattern.compile("(\\d+)([WDHMS])").matcher(durSpec);
-			while (m.find()) {
-				int bit = Integer.parseInt(m.group(1));
-				/* break missing intentionally everywhere below. You'll see why. */
-				switch (m.group(2)) {
-					case "W":
-						bit *= 7;
-					case "D":
-						bit *= 24;
-					case "H":
-						bit *= 60;
-					case "M":
-						bit *= 60;
-				}
-				ret += bit;
+			// Mostly the same handful of values over and over again.
+			Duration ret = durations.get(durSpec);
+			if (ret == null) {
+				ret = Schedule.parseDuration(durSpec);
+				durations.put(durSpec, ret);
 			}
-			return Duration.ofSeconds(ret);
+			return ret;
 		}
 
-		@Override
-		public void startElement(String uri, String localName, String qName,
-				Attributes atts) throws SAXException {
-			curString = "";
-			if (localName.equals("vevent")) {
-				eventData = new HashMap<>();
-				eventDataAttr = new HashMap<>();
-			} else {
-				if (atts != null && atts.getLength() > 0 && eventDataAttr != null) {
-					eventDataAttr.put(localName, atts);
+		/* Turn the collected properties into an Item and add it to the schedule. */
+		public void add() {
+			ZonedDateTime startTime, endTime;
+			Schedule.Item item;
+			Schedule.Line line;
+
+			if (uid == null || summary == null || location == null || dtStart == null ||
+			    (dtEnd == null && duration == null)) {
+				Log.w("Schedule.loadXcal", "Invalid event, some attributes are missing. Have: uid=" + uid +
+				                           " summary=" + summary + " location=" + location +
+				                           " dtstart=" + dtStart + " dtend=" + dtEnd + " duration=" + duration);
+				return;
+			}
+
+			try {
+				startTime = parseTime(dtStart, dtStartTz);
+				if (duration != null) {
+					endTime = startTime.plus(parseDuration(duration));
+				} else {
+					// If dtend has a different tz then you're a terrible person.
+					endTime = parseTime(dtEnd, dtStartTz);
 				}
+			} catch (ParseException e) {
+				Log.w("Schedule.loadXcal", "Can't parse date: " + e);
+				return;
 			}
+
+			item = new Schedule.Item(uid, summary, startTime, endTime);
+
+			if (description != null) {
+				item.setDescription(description);
+			}
+
+			if (url != null) {
+				item.addLink(new Link(url));
+			}
+
+			if ((line = tentMap.get(location)) == null) {
+				line = new Schedule.Line(location);
+				tents.add(line);
+				tentMap.put(location, line);
+			}
+			line.addItem(item);
 		}
-	
-		@Override
-		public void characters(char[] ch, int start, int length) throws SAXException {
-			curString += String.copyValueOf(ch, start, length); 
-		}
-	
-		@Override
-		public void endElement(String uri, String localName, String qName)
-				throws SAXException {
-			if (localName.equals("vevent")) {
-				String uid, name, location, startTimeS, endTimeS, durationS = null, s;
-				ZonedDateTime startTime, endTime;
-				Schedule.Item item;
-				Schedule.Line line;
-				
-				if ((uid = eventData.get("uid")) == null ||
-				    (name = eventData.get("summary")) == null ||
-				    (location = eventData.get("location")) == null ||
-				    (startTimeS = eventData.get("dtstart")) == null ||
-				    ((endTimeS = eventData.get("dtend")) == null &&
-				     (durationS = eventData.get("duration")) == null)) {
-					Log.w("Schedule.loadXcal", "Invalid event, some attributes are missing. Have: " + String.join(", ", eventData.keySet()));
-					return;
-				}
-				
-				try {
-					Attributes at = eventDataAttr.get("dtstart");
-					String tz = null;
-					if (at != null) {
-						tz = at.getValue("tzid");
-					}
+	}
 
-					startTime = parseTime(startTimeS, tz);
-					if (durationS != null) {
-						endTime = startTime.plus(parseDuration(durationS));
-					} else {
-						// If dtend has a different tz then you're a terrible person.
-						endTime = parseTime(endTimeS, tz);
-					}
-				} catch (ParseException e) {
-					Log.w("Schedule.loadXcal", "Can't parse date: " + e);
-					return;
-				}
+	private static final Pattern durationPart = Pattern.compile("(\\d+)([WDHMS])");
 
-				item = new Schedule.Item(uid, name, startTime, endTime);
-				
-				if ((s = eventData.get("description")) != null) {
-					item.setDescription(s);
-				}
-				
-				if ((s = eventData.get("url")) != null) {
-					item.addLink(new Link(s));
-				}
+	/* Yay I'll just write my own parser... Spec is at https://www.kanzaki.com/docs/ical/duration-t.html
+	   Don't feel like importing a non-GPL library for just this. Also, returning an int (seconds) instead
+	   of some kind of timedelta since the Java/Android version I'm targeting (<8?) doesn't have one yet.
+	 */
+	private static Duration parseDuration(String durSpec) {
+		int ret = 0;
+		Matcher m = durationPart.matcher(durSpec);
+		while (m.find()) {
+			int bit = Integer.parseInt(m.group(1));
+			/* break missing intentionally everywhere below. You'll see why. */
+			switch (m.group(2)) {
+				case "W":
+					bit *= 7;
+				case "D":
+					bit *= 24;
+				case "H":
+					bit *= 60;
+				case "M":
+					bit *= 60;
+			}
+			ret += bit;
+		}
+		return Duration.ofSeconds(ret);
+	}
 
-				if ((line = tentMap.get(location)) == null) {
-					line = new Schedule.Line(location);
-					tents.add(line);
-					tentMap.put(location, line);
-				}
-				line.addItem(item);
-				
-				eventData = null;
-			} else if (localName.equals("x-wr-calname")) {
-				title = curString;
-			} else if (localName.equals("x-wr-caldesc")) {
-				// Fall back to this field if necessary, calname is likely more suitable (brief)
-				if (title == null) {
-					title = curString;
+	/* Element name -> enum lookup tables for the XML parsers below, so that they can just switch()
+	   on tags instead of doing a string compare chain for every single element. */
+	private static <T extends Enum<T>> HashMap<String,T> tagMap(T[] tags, char sep) {
+		HashMap<String,T> ret = new HashMap<>();
+		for (T tag : tags) {
+			ret.put(tag.name().toLowerCase().replace('_', sep), tag);
+		}
+		return ret;
+	}
+
+	/* Small driver on top of XmlPullParser shared by the XML formats. Collects text into one reused
+	   StringBuilder (straight from the parser's buffer if it allows) and keeps track of which of our
+	   tags we're in, so start() and end() get enum values instead of strings. */
+	private abstract class PullParser<T extends Enum<T>> {
+		protected XmlPullParser xpp;
+		private HashMap<String,T> tags;
+		private T other;
+		private StringBuilder text = new StringBuilder();
+		private int[] textPos = new int[2];
+		private ArrayList<T> stack = new ArrayList<>();
+
+		PullParser(HashMap<String,T> tags_, T other_) {
+			tags = tags_;
+			other = other_;
+		}
+
+		void parse(XmlPullParser xpp_) throws XmlPullParserException, IOException {
+			xpp = xpp_;
+			int ev;
+			while ((ev = xpp.next()) != XmlPullParser.END_DOCUMENT) {
+				switch (ev) {
+					case XmlPullParser.START_TAG:
+						T tag = tags.get(xpp.getName());
+						if (tag == null) {
+							tag = other;
+						}
+						stack.add(tag);
+						text.setLength(0);
+						start(tag);
+						break;
+					case XmlPullParser.TEXT:
+						char[] buf = xpp.getTextCharacters(textPos);
+						if (buf != null) {
+							text.append(buf, textPos[0], textPos[1]);
+						}
+						break;
+					case XmlPullParser.END_TAG:
+						end(stack.remove(stack.size() - 1));
+						break;
 				}
-			} else if (eventData != null) {
-				eventData.put(localName, curString);
 			}
 		}
 
-		@Override
-		public void setDocumentLocator(Locator locator) {}
+		/* Text since the last start tag. Only call when you actually need it, it's a copy. */
+		protected String text() {
+			return text.toString();
+		}
 
-		@Override
-		public void startDocument() throws SAXException {}
+		protected String attr(String name) {
+			return xpp.getAttributeValue(null, name);
+		}
 
-		@Override
-		public void endDocument() throws SAXException {}
+		abstract void start(T tag);
+
+		abstract void end(T tag);
+	}
+
+	private enum XcalTag {
+		OTHER, VEVENT, UID, SUMMARY, LOCATION, DTSTART, DTEND, DURATION, DESCRIPTION, URL,
+		X_WR_CALNAME, X_WR_CALDESC;
+
+		static final HashMap<String,XcalTag> byName = tagMap(values(), '-');
+	}
+
+	private class XcalParser extends PullParser<XcalTag> {
+		private VEvent ev = new VEvent();
+		private boolean inEvent;
+
+		public XcalParser() {
+			super(XcalTag.byName, XcalTag.OTHER);
+		}
 
 		@Override
-		public void startPrefixMapping(String s, String s1) throws SAXException {}
+		void start(XcalTag tag) {
+			if (tag == XcalTag.VEVENT) {
+				ev.clear();
+				inEvent = true;
+			} else if (tag == XcalTag.DTSTART) {
+				ev.dtStartTz = attr("tzid");
+			}
+		}
 
 		@Override
-		public void endPrefixMapping(String s) throws SAXException {}
+		void end(XcalTag tag) {
+			switch (tag) {
+				case VEVENT:
+					ev.add();
+					inEvent = false;
+					break;
+				case X_WR_CALNAME:
+					title = text();
+					break;
+				case X_WR_CALDESC:
+					// Fall back to this field if necessary, calname is likely more suitable (brief)
+					if (title == null) {
+						title = text();
+					}
+					break;
+				default:
+					if (inEvent) {
+						setProp(tag);
+					}
+			}
+		}
 
-		@Override
-		public void ignorableWhitespace(char[] chars, int i, int i1) throws SAXException {}
+		private void setProp(XcalTag tag) {
+			switch (tag) {
+				case UID:
+					ev.uid = text();
+					break;
+				case SUMMARY:
+					ev.summary = text();
+					break;
+				case LOCATION:
+					ev.location = text();
+					break;
+				case DTSTART:
+					ev.dtStart = text();
+					break;
+				case DTEND:
+					ev.dtEnd = text();
+					break;
+				case DURATION:
+					ev.duration = text();
+					break;
+				case DESCRIPTION:
+					ev.description = text();
+					break;
+				case URL:
+					ev.url = text();
+					break;
+			}
+		}
+	}
 
-		@Override
-		public void processingInstruction(String s, String s1) throws SAXException {}
+	private enum PentabarfTag {
+		OTHER, CONFERENCE, DAY, ROOM, EVENT, PERSON, LINK,
+		// Event/conference properties, these go into the props array.
+		TITLE, SUBTITLE, START, DATE, DURATION, URL, ABSTRACT, DESCRIPTION, TRACK, LANGUAGE,
+		DAY_CHANGE, TIME_ZONE_NAME;
 
-		@Override
-		public void skippedEntity(String s) throws SAXException {}
+		static final HashMap<String,PentabarfTag> byName = tagMap(values(), '_');
 	}
 
 	/* Pentabarf, the old conference organisation tool has a pretty excellent native XML format
 	   and is now the preferred file format. http://pentabarf.org/Main_Page
 	   It's not really maintained anymore though, a recent fork called Frab is more maintained and
 	   Giggity can read its XML exports just as well https://github.com/frab/frab
+	   Frab (and the C3VOC tooling around it) can also export the same data as JSON, so the part
+	   that turns the parsed fields into Items lives here and is shared by both parsers. Same idea
+	   as VEvent, reused for the whole file.
 	 */
-	private class PentabarfParser implements ContentHandler {
+	/* What PentabarfEvent.add() collects per event, to be turned into an Item by finish(). */
+	private static class RawEvent {
+		String cid, title;
+		ZonedDateTime startTime, endTime;
+		String[] props;
+		LinkedList<Link> links;
+		LinkedList<String> persons;
+		Line tent;
+		Item item;
+	}
+
+	private class PentabarfEvent {
 		private Schedule.Line curTent;
 		private HashMap<String,Schedule.Line> tentMap;
-		private HashMap<String,String> propMap;
-		private String curString;
+		// Indexed by PentabarfTag.ordinal(), null'ed for every event. (Not all slots are used.)
+		private String[] props;
+		private String id, guid;
 		private LinkedList<String> persons;
 		private LinkedList<Link> links;
 		private LocalDate curDay;
 
+		// Times and durations tend to repeat a lot, and parsing them is surprisingly expensive.
+		private HashMap<String,LocalTime> times;
+		private ConcurrentHashMap<String,String> languageNames;
+		private HashSet<String> ids;
+
+		// Events parsed but not turned into Items yet.
+		private ArrayList<RawEvent> pending;
+
 		private DateTimeFormatter df, tf, zdf;
 
-		public PentabarfParser() {
+		public PentabarfEvent() {
 			tentMap = new HashMap<>();
+			props = new String[PentabarfTag.values().length];
+			times = new HashMap<>();
+			languageNames = new ConcurrentHashMap<>();
+			ids = new HashSet<>();
+			pending = new ArrayList<>();
 
 			df = DateTimeFormatter.ISO_LOCAL_DATE;
 			// tf = DateTimeFormatter.ISO_LOCAL_TIME;  // Nope, won't take the optional seconds. :<
@@ -834,203 +2184,480 @@ public class Schedule implements Serializable {
 			zdf = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
 		}
 
-		@Override
-		public void startElement(String uri, String localName, String qName,
-				Attributes atts) throws SAXException {
-			curString = "";
-			if (localName.equals("conference") || localName.equals("event")) {
-				propMap = new HashMap<String,String>();
+		private LocalTime parseTime(String s) {
+			LocalTime ret = times.get(s);
+			if (ret == null) {
+				ret = LocalTime.parse(s, tf);
+				times.put(s, ret);
+			}
+			return ret;
+		}
+
+		private String prop(PentabarfTag tag) {
+			return props[tag.ordinal()];
+		}
 
-				if (atts.getValue("id") != null)
-					propMap.put("id", atts.getValue("id"));
-				if (atts.getValue("guid") != null)
-					propMap.put("guid", atts.getValue("guid"));
+		public void set(PentabarfTag tag, String value) {
+			props[tag.ordinal()] = value;
+		}
 
-				links = new LinkedList<>();
-				persons = new LinkedList<>();
-			} else if (localName.equals("day")) {
-				curDay = LocalDate.parse(atts.getValue("date"), df);
-				// TODO: PARSE ERROR?
-			} else if (localName.equals("room")) {
-				String name = atts.getValue("name");
-				Schedule.Line line;
-				
-				if (name == null)
-					return;
-				
-				if ((line = tentMap.get(name)) == null) {
-					line = new Schedule.Line(name);
-					tents.add(line);
-					tentMap.put(name, line);
-				}
-				curTent = line;
-			} else if (localName.equals("link") && links != null) {
-				String href = atts.getValue("href");
-				if (href != null)
-					links.add(new Link(href));
+		public void clear(String id_, String guid_) {
+			Arrays.fill(props, null);
+			id = id_;
+			guid = guid_;
+			links = new LinkedList<>();
+			persons = new LinkedList<>();
+		}
+
+		public void setDay(String date) {
+			curDay = LocalDate.parse(date, df);
+			// TODO: PARSE ERROR?
+		}
+
+		public void setRoom(String name) {
+			Schedule.Line line;
+
+			if (name == null)
+				return;
+
+			if ((line = tentMap.get(name)) == null) {
+				line = new Schedule.Line(name);
+				tents.add(line);
+				tentMap.put(name, line);
 			}
+			curTent = line;
 		}
-	
-		@Override
-		public void characters(char[] ch, int start, int length) throws SAXException {
-			curString += String.copyValueOf(ch, start, length); 
+
+		public void addPerson(String name) {
+			if (persons != null)
+				persons.add(name);
 		}
-		
-		@Override
-		public void endElement(String uri, String localName, String qName)
-				throws SAXException {
-			curString = curString.trim(); // D:
-			if (localName.equals("conference")) {
-				title = propMap.get("title");
-				if (propMap.get("day_change") != null) {
-					dayChange = LocalTime.parse(propMap.get("day_change"), tf);
-				}
-				if (propMap.get("time_zone_name") != null) {
-					ZoneId fTZ = ZoneId.of(propMap.get("time_zone_name"));
-					if (!fTZ.normalized().equals(inTZ.normalized())) {
-						Log.w("ScheduleTZ", "In-file timezone " + fTZ + " seems to mismatch our records: " + inTZ);
-					}
-					inTZ = fTZ;
-				}
-			} else if (localName.equals("event")) {
-				String id = null, guid = null;
-				String title, startTimeS, startZonedTimeS, durationS, s, desc, wl;
-				ZonedDateTime startTime, endTime;
-				Schedule.Item item;
-
-				startTimeS = propMap.get("start");
-				startZonedTimeS = propMap.get("date");
-				id = propMap.get("id");
-				guid = propMap.get("guid");
-				if ((id == null && guid == null) ||
-				    (title = propMap.get("title")) == null ||
-				    (startTimeS == null && startZonedTimeS == null) ||
-				    (durationS = propMap.get("duration")) == null) {
-					Log.w("Schedule.loadPentabarf", "Invalid event, some attributes are missing.");
-					return;
+
+		public void addLink(String href) {
+			if (href != null && links != null)
+				links.add(new Link(href));
+		}
+
+		public void setLinkTitle(String title) {
+			if (links != null && !links.isEmpty() && !title.isEmpty()) {
+				links.getLast().setTitle(title);
+			}
+		}
+
+		/* Copy conference-wide info from props, they're collected the same way as for events. */
+		public void addConference() {
+			title = prop(PentabarfTag.TITLE);
+			if (prop(PentabarfTag.DAY_CHANGE) != null) {
+				dayChange = parseTime(prop(PentabarfTag.DAY_CHANGE));
+			}
+			if (prop(PentabarfTag.TIME_ZONE_NAME) != null) {
+				ZoneId fTZ = ZoneId.of(prop(PentabarfTag.TIME_ZONE_NAME));
+				if (!fTZ.normalized().equals(inTZ.normalized())) {
+					Log.w("ScheduleTZ", "In-file timezone " + fTZ + " seems to mismatch our records: " + inTZ);
 				}
+				inTZ = fTZ;
+			}
+		}
 
-				startTime = null;
-				try {
-					if (startZonedTimeS != null) {
-						// All internal timestamps must be the tz-native times, in the conf's zone
-						// ... though sometimes they're not, soo .... force it to inTZ now!
-						startTime = ZonedDateTime.parse(startZonedTimeS, zdf).withZoneSameInstant(inTZ);
-					}
-				} catch (DateTimeParseException e){
-					startZonedTimeS = null;
+		public void add() {
+			String title, startTimeS, startZonedTimeS, durationS;
+			ZonedDateTime startTime, endTime;
+
+			startTimeS = prop(PentabarfTag.START);
+			startZonedTimeS = prop(PentabarfTag.DATE);
+			if ((id == null && guid == null) ||
+			    (title = prop(PentabarfTag.TITLE)) == null ||
+			    (startTimeS == null && startZonedTimeS == null) ||
+			    (durationS = prop(PentabarfTag.DURATION)) == null) {
+				Log.w("Schedule.loadPentabarf", "Invalid event, some attributes are missing.");
+				return;
+			}
+
+			startTime = null;
+			try {
+				if (startZonedTimeS != null) {
+					// All internal timestamps must be the tz-native times, in the conf's zone
+					// ... though sometimes they're not, soo .... force it to inTZ now!
+					startTime = ZonedDateTime.parse(startZonedTimeS, zdf).withZoneSameInstant(inTZ);
 				}
-				if (startZonedTimeS == null) {
-					LocalTime rawTime = LocalTime.parse(startTimeS, tf);
-					startTime = ZonedDateTime.of(curDay, rawTime, inTZ);
-
-					if (rawTime.isBefore(dayChange)) {
-						// In Frab files, if a time is before day_change it's after midnight, thus
-						// date should be incremented by one. (Not needed when using zoned *full*
-						// timestamp above.)
-						startTime = startTime.plusDays(1);
-					}
+			} catch (DateTimeParseException e){
+				startZonedTimeS = null;
+			}
+			if (startZonedTimeS == null) {
+				LocalTime rawTime = parseTime(startTimeS);
+				startTime = ZonedDateTime.of(curDay, rawTime, inTZ);
+
+				if (rawTime.isBefore(dayChange)) {
+					// In Frab files, if a time is before day_change it's after midnight, thus
+					// date should be incremented by one. (Not needed when using zoned *full*
+					// timestamp above.)
+					startTime = startTime.plusDays(1);
 				}
+			}
 
-				LocalTime rawTime = LocalTime.parse(durationS, tf);
-				endTime = startTime.plusHours(rawTime.getHour()).plusMinutes(rawTime.getMinute());
-
-				String cid = null;  // canonical ID. This file format has been, hm, evolving?
-				if (guid != null) {
-					cid = guid;
-					if (id != null) {
-						String prev = cIdMap.put(id, guid);
-						if (prev != null) {
-							Log.i("Schedule.loadPentabarf", "Schedule contains duplicate event id=" +
-									     id + " used by both guid=" + prev + " and guid=" + guid);
-						}
-					}
-				} else if (id != null) {
-					// FOSDEM still uses just these, as do a few others. :(
-					cid = id;
-					if (allItems.get(id) != null) {
-						Log.e("Schedule.loadPentabarf", "Schedule contains duplicate event id=" + id + ", and does NOT provide GUIDs for deduplication!");
+			LocalTime rawTime = parseTime(durationS);
+			endTime = startTime.plusHours(rawTime.getHour()).plusMinutes(rawTime.getMinute());
+
+			String cid = null;  // canonical ID. This file format has been, hm, evolving?
+			if (guid != null) {
+				cid = guid;
+				if (id != null) {
+					String prev = cIdMap.put(id, guid);
+					if (prev != null) {
+						Log.i("Schedule.loadPentabarf", "Schedule contains duplicate event id=" +
+								     id + " used by both guid=" + prev + " and guid=" + guid);
 					}
 				}
-
-				item = new Schedule.Item(cid, title, startTime, endTime);
-				
-				if ((s = propMap.get("subtitle")) != null) {
-					if (!s.isEmpty())
-						item.setSubtitle(s);
+			} else if (id != null) {
+				// FOSDEM still uses just these, as do a few others. :(
+				cid = id;
+				if (!ids.add(id)) {
+					Log.e("Schedule.loadPentabarf", "Schedule contains duplicate event id=" + id + ", and does NOT provide GUIDs for deduplication!");
 				}
-				
-				if ((wl = propMap.get("url")) != null) {
-					if (!wl.isEmpty())
-						item.setWebLink(wl);
+			}
+
+			// The rest (text mangling mostly) is done by finish(), for many events at once.
+			RawEvent raw = new RawEvent();
+			raw.cid = cid;
+			raw.title = title;
+			raw.startTime = startTime;
+			raw.endTime = endTime;
+			raw.props = props.clone();
+			raw.links = links;
+			raw.persons = persons;
+			raw.tent = curTent;
+			pending.add(raw);
+
+			links = null;
+			persons = null;
+		}
+
+		/* Turn all pending events into Items. The expensive per-event bits (description heuristics
+		   and clean-up, language names, link dedup, key hashing) don't touch any shared state so
+		   they run on all cores. Adding them to rooms/tracks is done after, in file order, since
+		   that's what decides which one wins in case of duplicates. */
+		public void finish() {
+			if (pending.isEmpty()) {
+				return;
+			}
+			final ArrayList<RawEvent> todo = pending;
+			pending = new ArrayList<>();
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					enrich(todo, 0, todo.size());
 				}
-				
-				desc = "";
-				// TODO: IMHO the separation between these two is not used in a meaningful way my most,
-				// or worse, description is just a copy of abstract. Some heuristics would be helpful.
-				if ((s = propMap.get("abstract")) != null &&
-				    (!propMap.containsKey("description") ||
-				     !Giggity.fuzzyStartsWith(propMap.get("abstract"), propMap.get("description")))) {
-					desc += s.trim() + "\n\n";
+			});
+			for (RawEvent raw : todo) {
+				String s;
+				if ((s = raw.props[PentabarfTag.TRACK.ordinal()]) != null && !s.equals("")) {
+					raw.item.setTrack(s);
 				}
-				if ((s = propMap.get("description")) != null) {
-					desc += s;
+				for (String i : raw.persons)
+					raw.item.addSpeaker(i);
+				raw.tent.addItem(raw.item);
+			}
+		}
+
+		/* Split in halves until it's small enough, see finish(). */
+		private void enrich(final List<RawEvent> todo, final int lo, final int hi) {
+			if (hi - lo <= 32) {
+				for (int i = lo; i < hi; ++i) {
+					enrich(todo.get(i));
 				}
-				item.setDescription(desc);
-				
-				if ((s = propMap.get("track")) != null && !s.equals("")) {
-					item.setTrack(s);
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			ForkJoinTask.invokeAll(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					enrich(todo, lo, mid);
 				}
-				for (Link i : links)
-					item.addLink(i);
-				for (String i : persons)
-					item.addSpeaker(i);
-
-				String lang = propMap.get("language");
-				if (lang != null && !lang.isEmpty()) {
-					Locale loc = new Locale(lang);
-					item.setLanguage(loc.getDisplayLanguage());
+			}, new RecursiveAction() {
+				@Override
+				protected void compute() {
+					enrich(todo, mid, hi);
 				}
+			});
+		}
+
+		private void enrich(RawEvent raw) {
+			String s, desc, wl;
+			String[] props = raw.props;
+			Schedule.Item item = new Schedule.Item(raw.cid, raw.title, raw.startTime, raw.endTime);
+
+			if ((s = props[PentabarfTag.SUBTITLE.ordinal()]) != null) {
+				if (!s.isEmpty())
+					item.setSubtitle(s);
+			}
+
+			if ((wl = props[PentabarfTag.URL.ordinal()]) != null) {
+				if (!wl.isEmpty())
+					item.setWebLink(wl);
+			}
+
+			desc = "";
+			String abs = props[PentabarfTag.ABSTRACT.ordinal()], full = props[PentabarfTag.DESCRIPTION.ordinal()];
+			// TODO: IMHO the separation between these two is not used in a meaningful way my most,
+			// or worse, description is just a copy of abstract. Some heuristics would be helpful.
+			if (abs != null && (full == null || !Giggity.fuzzyStartsWith(abs, full))) {
+				desc += abs.trim() + "\n\n";
+			}
+			if (full != null) {
+				desc += full;
+			}
+			item.setDescription(desc);
 
-				curTent.addItem(item);
-				propMap = null;
-				links = null;
-				persons = null;
-			} else if (localName.equals("person")) {
-				persons.add(curString);
-			} else if (localName.equals("link")) {
-				String title = curString.trim();
-				if (!links.isEmpty() && !title.isEmpty()) {
-					links.getLast().setTitle(title);
+			for (Link i : raw.links)
+				item.addLink(i);
+
+			String lang = props[PentabarfTag.LANGUAGE.ordinal()];
+			if (lang != null && !lang.isEmpty()) {
+				String name = languageNames.get(lang);
+				if (name == null) {
+					name = new Locale(lang).getDisplayLanguage();
+					languageNames.put(lang, name);
 				}
-			} else if (propMap != null) {
-				propMap.put(localName, curString);
+				item.setLanguage(name);
 			}
+
+			// MD5, so might as well do it here.
+			item.getKey();
+			raw.item = item;
 		}
+	}
 
-		@Override
-		public void setDocumentLocator(Locator locator) {}
+	private class PentabarfParser extends PullParser<PentabarfTag> {
+		private PentabarfEvent ev = new PentabarfEvent();
 
-		@Override
-		public void startDocument() throws SAXException {}
+		public PentabarfParser() {
+			super(PentabarfTag.byName, PentabarfTag.OTHER);
+		}
 
 		@Override
-		public void endDocument() throws SAXException {}
+		void start(PentabarfTag tag) {
+			switch (tag) {
+				case CONFERENCE:
+				case EVENT:
+					ev.clear(attr("id"), attr("guid"));
+					break;
+				case DAY:
+					ev.setDay(attr("date"));
+					break;
+				case ROOM:
+					ev.setRoom(attr("name"));
+					break;
+				case LINK:
+					ev.addLink(attr("href"));
+					break;
+			}
+		}
 
 		@Override
-		public void startPrefixMapping(String s, String s1) throws SAXException {}
+		void end(PentabarfTag tag) {
+			switch (tag) {
+				case OTHER:
+				case ROOM:  // (Inside <event> this is just a copy of the <room name=""> we're in.)
+					break;
+				case DAY:
+					ev.finish();
+					dayLoaded(ev.curDay);
+					break;
+				case CONFERENCE:
+					ev.addConference();
+					break;
+				case EVENT:
+					ev.add();
+					break;
+				case PERSON:
+					ev.addPerson(text().trim());
+					break;
+				case LINK:
+					ev.setLinkTitle(text().trim());
+					break;
+				default:
+					ev.set(tag, text().trim());
+			}
+		}
+	}
 
-		@Override
-		public void endPrefixMapping(String s) throws SAXException {}
+	/* Frab/C3VOC schedule.json ( https://c3voc.de/schedule/schema.json ), same data as the XML
+	   version really, so streamed into the same PentabarfEvent. */
+	private class FrabJsonParser {
+		private JsonReader json;
+		private PentabarfEvent ev = new PentabarfEvent();
 
-		@Override
-		public void ignorableWhitespace(char[] chars, int i, int i1) throws SAXException {}
+		public FrabJsonParser(BufferedReader in) {
+			json = new JsonReader(in);
+		}
 
-		@Override
-		public void processingInstruction(String s, String s1) throws SAXException {}
+		public void parse() throws IOException {
+			json.beginObject();
+			while (json.hasNext()) {
+				if (json.nextName().equals("schedule")) {
+					json.beginObject();
+					while (json.hasNext()) {
+						if (json.nextName().equals("conference")) {
+							parseConference();
+						} else {
+							json.skipValue();
+						}
+					}
+					json.endObject();
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			ev.finish();
+		}
+
+		/* Scalar value as a string (numbers included), or null. Skips anything else. */
+		private String string() throws IOException {
+			switch (json.peek()) {
+				case STRING:
+				case NUMBER:
+					return json.nextString().trim();
+				case BOOLEAN:
+					return String.valueOf(json.nextBoolean());
+				case NULL:
+					json.nextNull();
+					return null;
+				default:
+					json.skipValue();
+					return null;
+			}
+		}
 
-		@Override
-		public void skippedEntity(String s) throws SAXException {}
+		private void parseConference() throws IOException {
+			boolean added = false;
+			ev.clear(null, null);
+			json.beginObject();
+			while (json.hasNext()) {
+				String name = json.nextName();
+				PentabarfTag tag = PentabarfTag.byName.get(name);
+				if (name.equals("days")) {
+					// Need the timezone etc. before reading any events. Should be above anyway.
+					ev.addConference();
+					added = true;
+					json.beginArray();
+					while (json.hasNext()) {
+						parseDay();
+					}
+					json.endArray();
+				} else if (tag != null && !added) {
+					ev.set(tag, string());
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			if (!added) {
+				ev.addConference();
+			}
+		}
+
+		private void parseDay() throws IOException {
+			json.beginObject();
+			while (json.hasNext()) {
+				String name = json.nextName();
+				if (name.equals("date")) {
+					ev.setDay(json.nextString());
+				} else if (name.equals("rooms")) {
+					json.beginObject();
+					while (json.hasNext()) {
+						ev.setRoom(json.nextName());
+						json.beginArray();
+						while (json.hasNext()) {
+							parseEvent();
+						}
+						json.endArray();
+					}
+					json.endObject();
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			ev.finish();
+			dayLoaded(ev.curDay);
+		}
+
+		private void parseEvent() throws IOException {
+			ev.clear(null, null);
+			json.beginObject();
+			while (json.hasNext()) {
+				String name = json.nextName();
+				PentabarfTag tag;
+				if (name.equals("id")) {
+					ev.id = string();
+				} else if (name.equals("guid")) {
+					ev.guid = string();
+				} else if (name.equals("persons")) {
+					json.beginArray();
+					while (json.hasNext()) {
+						parsePerson();
+					}
+					json.endArray();
+				} else if (name.equals("links")) {
+					json.beginArray();
+					while (json.hasNext()) {
+						parseLink();
+					}
+					json.endArray();
+				} else if ((tag = PentabarfTag.byName.get(name)) != null) {
+					ev.set(tag, string());
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			ev.add();
+		}
+
+		private void parsePerson() throws IOException {
+			if (json.peek() == JsonToken.STRING) {
+				ev.addPerson(json.nextString().trim());
+				return;
+			}
+			String name = null;
+			json.beginObject();
+			while (json.hasNext()) {
+				String key = json.nextName();
+				// Older exports have "full_public_name" or just "name".
+				if (key.equals("public_name") || (name == null && (key.equals("name") || key.equals("full_public_name")))) {
+					name = string();
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			if (name != null) {
+				ev.addPerson(name);
+			}
+		}
+
+		private void parseLink() throws IOException {
+			String url = null, title = null;
+			json.beginObject();
+			while (json.hasNext()) {
+				String key = json.nextName();
+				if (key.equals("url")) {
+					url = string();
+				} else if (key.equals("title")) {
+					title = string();
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			if (url != null) {
+				ev.addLink(url);
+				if (title != null) {
+					ev.setLinkTitle(title);
+				}
+			}
+		}
 	}
 
 	public enum RoomStatus {
@@ -1042,11 +2669,17 @@ public class Schedule implements Serializable {
 
 	public class ItemList {
 		protected String title;
-		protected TreeSet<Schedule.Item> items;
+		/* Plain array instead of a TreeSet, sorted lazily by sorted(). Arrays returned by sorted()
+		   are exactly full and never get written to again, addItem()/removeItem() copy first, so
+		   they can be handed out (see getItems()) without copying. */
+		private Item[] items = new Item[0];
+		private int count;
+		private boolean dirty;
+		private AbstractSet<Schedule.Item> view;
+		private int viewVersion;
 
 		public ItemList(String title_) {
 			title = title_;
-			items = new TreeSet<Schedule.Item>();
 		}
 
 		public String getTitle() {
@@ -1054,19 +2687,91 @@ public class Schedule implements Serializable {
 		}
 
 		protected void addItem(Schedule.Item item) {
-			items.add(item);
+			if (count == items.length) {
+				items = Arrays.copyOf(items, Math.max(8, count * 2));
+			}
+			items[count++] = item;
+			dirty = true;
+			version++;
+		}
+
+		protected void removeItem(Schedule.Item item) {
+			int i = 0;
+			while (i < count && items[i] != item) {
+				i++;
+			}
+			if (i == count) {
+				return;
+			}
+			Item[] ret = new Item[count - 1];
+			System.arraycopy(items, 0, ret, 0, i);
+			System.arraycopy(items, i + 1, ret, i, count - i - 1);
+			items = ret;
+			count--;
+			version++;
+		}
+
+		/* All items, also hidden ones/other days, in order. Don't modify. */
+		Item[] sorted() {
+			if (dirty) {
+				Item[] ret = Arrays.copyOf(items, count);
+				Arrays.sort(ret);
+				// TreeSet (what this used to be) dropped duplicates (same time, title and key),
+				// so keep doing that. Sort is stable so it's still the first one added that stays.
+				int n = 0;
+				for (Item item : ret) {
+					if (n == 0 || ret[n - 1].compareTo(item) != 0) {
+						ret[n++] = item;
+					}
+				}
+				items = n == ret.length ? ret : Arrays.copyOf(ret, n);
+				count = n;
+				dirty = false;
+			}
+			return items;
 		}
 
+		/** Items matching the current day/showHidden settings. Read-only, and shared between callers
+		 *  until anything affecting the filter changes (see version). */
 		public AbstractSet<Schedule.Item> getItems() {
-			TreeSet<Schedule.Item> ret = new TreeSet<Schedule.Item>();
+			if (view != null && viewVersion == version) {
+				return view;
+			}
 
-			for (Item item : items) {
-				if ((!item.isHidden() || showHidden) &&
-				    (curDay == null || (!item.startTime.isBefore(curDay) &&
-				                        !item.endTime.isAfter(curDayEnd))))
-					ret.add(item);
+			Item[] all = sorted();
+			Item[] ret = new Item[all.length];
+			int n = 0;
+			for (Item item : all) {
+				if (isVisible(item))
+					ret[n++] = item;
 			}
-			return ret;
+			view = new ItemView(n == all.length ? all : Arrays.copyOf(ret, n));
+			viewVersion = version;
+			return view;
+		}
+	}
+
+	/* What ItemList.getItems() hands out. A sorted array that looks like a read-only Set. */
+	private static class ItemView extends AbstractSet<Item> {
+		private final Item[] items;
+
+		ItemView(Item[] items_) {
+			items = items_;
+		}
+
+		@Override
+		public Iterator<Item> iterator() {
+			return Collections.unmodifiableList(Arrays.asList(items)).iterator();
+		}
+
+		@Override
+		public int size() {
+			return items.length;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof Item && Arrays.binarySearch(items, o) >= 0;
 		}
 	}
 
@@ -1094,11 +2799,12 @@ public class Schedule implements Serializable {
 
 			/* The rest really should be in the caller, but there are several callsites, one per parser. TODO. */
 			allItems.put(item.getId(), item);
+			keyMap.put(item.getKey(), item);
 
-			if (firstTime == null || item.startTime.isBefore(firstTime))
-				firstTime = item.startTime;
-			if (lastTime == null || item.endTime.isAfter(lastTime))
-				lastTime = item.endTime;
+			if (firstTime == null || item.start < firstTime.toEpochSecond())
+				firstTime = item.startIn();
+			if (lastTime == null || item.end > lastTime.toEpochSecond())
+				lastTime = item.endIn();
 
 			if (item.getLanguage() != null) {
 				languages.add(item.getLanguage());
@@ -1166,37 +2872,59 @@ public class Schedule implements Serializable {
 		private Line line;
 		private String title, subtitle;
 		private Track track;
-		private String description;
-		private ZonedDateTime startTime, endTime;
-		private LinkedList<Schedule.Link> links;
-		private LinkedList<String> speakers;
+		private String description;  // null if it's in descBlob (or if there's none)
+		private int descOff, descLen;
+		private boolean descriptionHtml;
+		// Epoch seconds, and the zone they were specified in (only matters for day boundaries).
+		private long start, end;
+		private ZoneId tz;
+		// In outTZ, made on first use and whenever that changes. See getStartTimeZoned().
+		private ZonedDateTime startZoned, endZoned;
+		private Link[] links;
+		private int[] speakers;  // See speakerId()
 		private String language;
 		private String webLink;
 		
 		private boolean remind;
 		private boolean hidden;
-		private boolean newData;
+
+		private long key;  // see getKey()
 
 		Item(String id_, String title_, ZonedDateTime startTime_, ZonedDateTime endTime_) {
+			this(id_, title_, startTime_.toEpochSecond(), endTime_.toEpochSecond(), startTime_.getZone());
+		}
+
+		private Item(String id_, String title_, long start_, long end_, ZoneId tz_) {
 			id = id_;
 			title = title_;
-			startTime = startTime_;
-			endTime = endTime_;
+			start = start_;
+			end = end_;
+			tz = tz_;
+		}
+
+		/** Stable 64-bit key: first 8 bytes of the MD5 of getUrl(). Same across restarts so good
+		 *  for notification/alarm ids and passing items around in Intents, and computed only once
+		 *  (when the item gets added to the schedule, or on first use). An item that merge() gives
+		 *  a new id keeps its old key until the next restart. */
+		public long getKey() {
+			if (key == 0) {
+				try {
+					MessageDigest md5 = MessageDigest.getInstance("MD5");
+					md5.update(getUrl().getBytes());
+					key = ByteBuffer.wrap(md5.digest(), 0, 8).getLong();
+				} catch (NoSuchAlgorithmException e) {  // WTF no
+					e.printStackTrace();
+					key = getUrl().hashCode();
+				}
+			}
+			return key;
 		}
 
 		@Override
 		public int hashCode() {
-			// No clue what the default version does but the numbers seem too low to me.
-			// I'm using this for notification + alarm IDs now so use all 32 bits.
-			try {
-				MessageDigest md5 = MessageDigest.getInstance("MD5");
-				md5.update(getUrl().getBytes());
-				byte[] raw = md5.digest();
-				return ByteBuffer.wrap(raw, 0, 4).getInt();
-			} catch (NoSuchAlgorithmException e) {  // WTF no
-				e.printStackTrace();
-				return super.hashCode();
-			}
+			// No clue what the default version does but the numbers seem too low to me. This is
+			// the same as the md5-based hash this used to compute on every call.
+			return (int) (getKey() >>> 32);
 		}
 		
 		public Schedule getSchedule() {
@@ -1214,24 +2942,45 @@ public class Schedule implements Serializable {
 		public void setDescription(String description_) {
 			// Keep the trim pls k thx baibai!
 			description = description_.trim();
+			descOff = descLen = 0;
+			descriptionHtml = false;
+
+			// Tidy up here once instead of on every view, so the renderer only has to pick a Markwon.
+			if (description.contains("</")) {
+				// Mild suggestion of HTML detected. Let's first check whether it's serious?
+				if (htmlCheck.matcher(description).find()) {
+					// Meaningful HTML found (i.e. more than just a few <p> tags) \o/
+					// Markwon doesn't turn <p>..</p> into proper paragraphs AFAICT, so mangle them
+					// a little bit.
+					description = htmlParagraphs.matcher(description).replaceAll("<p><p>").trim();
+					description = htmlParagraphsAfterTag.matcher(description).replaceAll("$1");
+					descriptionHtml = true;
+				} else {
+					// Seen in the FOSDEM schedule: Markdown-ish but with paragraphs marked with both
+					// whitespace and <p> tags. Well let's make it markdown then...
+					description = htmlParagraphs.matcher(description).replaceAll("\n\n").trim();
+				}
+			}
 		}
 
 		public void addLink(Schedule.Link link) {
 			if (links == null) {
-				links = new LinkedList<Schedule.Link>();
+				links = new Link[0];
 			}
 			for (Schedule.Link l : links)
 				if (l.getUrl().equals(link.getUrl()))
 					return;
 			
-			links.add(link);
+			links = Arrays.copyOf(links, links.length + 1);
+			links[links.length - 1] = link;
 		}
 		
 		public void addSpeaker(String name) {
 			if (speakers == null) {
-				speakers = new LinkedList<String>();
+				speakers = new int[0];
 			}
-			speakers.add(name);
+			speakers = Arrays.copyOf(speakers, speakers.length + 1);
+			speakers[speakers.length - 1] = speakerId(name);
 		}
 
 		public void setLanguage(String lang) {
@@ -1271,19 +3020,46 @@ public class Schedule implements Serializable {
 		}
 
 		public ZonedDateTime getStartTimeZoned() {
-			return startTime.withZoneSameInstant(outTZ);
+			// One field so that other threads see either the old or the new version, never a mix.
+			ZonedDateTime ret = startZoned;
+			if (ret == null || ret.getZone() != outTZ) {
+				startZoned = ret = ZonedDateTime.ofInstant(Instant.ofEpochSecond(start), outTZ);
+			}
+			return ret;
 		}
 		
 		public ZonedDateTime getEndTimeZoned() {
-			return endTime.withZoneSameInstant(outTZ);
+			ZonedDateTime ret = endZoned;
+			if (ret == null || ret.getZone() != outTZ) {
+				endZoned = ret = ZonedDateTime.ofInstant(Instant.ofEpochSecond(end), outTZ);
+			}
+			return ret;
 		}
 
 		public Date getStartTime() {
-			return Date.from(startTime.toInstant());
+			return new Date(start * 1000);
 		}
 
 		public Date getEndTime() {
-			return Date.from(endTime.toInstant());
+			return new Date(end * 1000);
+		}
+
+		/** Start time in seconds since the epoch. Cheapest way to compare/do maths with. */
+		public long getStartEpoch() {
+			return start;
+		}
+
+		public long getEndEpoch() {
+			return end;
+		}
+
+		/* In the zone the schedule file used, for the day list. */
+		private ZonedDateTime startIn() {
+			return ZonedDateTime.ofInstant(Instant.ofEpochSecond(start), tz);
+		}
+
+		private ZonedDateTime endIn() {
+			return ZonedDateTime.ofInstant(Instant.ofEpochSecond(end), tz);
 		}
 
 		public Track getTrack() {
@@ -1291,14 +3067,26 @@ public class Schedule implements Serializable {
 		}
 		
 		public String getDescription() {
+			if (description == null && descLen > 0) {
+				return readDescription(this, true);
+			}
+			return description;
+		}
+
+		/* Same but without going through (and flushing out) descCache, for bulk use. */
+		private String rawDescription() {
+			if (description == null && descLen > 0) {
+				return readDescription(this, false);
+			}
 			return description;
 		}
 
 		public String getDescriptionStripped() {
-			if (description == null) {
+			// Mostly used for building the search index, so all items at once.
+			String ret = rawDescription();
+			if (ret == null) {
 				return null;
 			}
-			String ret = description;
 			/* Very clunky HTML stripper */
 			if (ret.startsWith("<") || ret.contains("<p>")) {
 				ret = ret.replaceAll("<[^>]*>", "");
@@ -1310,35 +3098,28 @@ public class Schedule implements Serializable {
 			return language;
 		}
 
-		public Spanned getDescriptionSpanned(Context ctx) {
-			if (description == null) {
+		/** Whether getDescription() is HTML, otherwise it's Markdown(-ish) or plain text. See
+		 *  DescriptionRenderer. */
+		public boolean isDescriptionHtml() {
+			return descriptionHtml;
+		}
+
+		public AbstractList<String> getSpeakers() {
+			if (speakers == null) {
 				return null;
 			}
-
-			if (description.contains("</")) {
-				// Mild suggestion of HTML detected. Let's first check whether it's serious?
-				Pattern htmlCheck = Pattern.compile("(?i)</?(?!p)\\b");
-				if (htmlCheck.matcher(description).find()) {
-					// Meaningful HTML found (i.e. more than just a few <p> tags) \o/
-					// Markwon doesn't turn <p>..</p> into proper paragraphs AFAICT, so mangle them
-					// a little bit.
-					description = description.replaceAll("(?is)(\\s*</?p>\\s*)+", "<p><p>").trim();
-					description = description.replaceAll("(?i)(<[^/p][^>]+>)(<p>)+", "$1");
-					final Markwon mw = Markwon.builder(ctx).usePlugin(HtmlPlugin.create()).build();
-					return mw.toMarkdown(description);
+			final int[] ids = speakers;
+			return new AbstractList<String>() {
+				@Override
+				public String get(int i) {
+					return speakerNames.get(ids[i]);
 				}
-				// Seen in the FOSDEM schedule: Markdown-ish but with paragraphs marked with both
-				// whitespace and <p> tags. Well let's make it markdown then...
-				description = description.replaceAll("(?is)(\\s*</?p>\\s*)+", "\n\n").trim();
-			}
-
-			final Markwon mw = Markwon.builder(ctx)
-					                   .usePlugin(LinkifyPlugin.create()).build();
-			return mw.toMarkdown(description);
-		}
 
-		public AbstractList<String> getSpeakers() {
-			return speakers;
+				@Override
+				public int size() {
+					return ids.length;
+				}
+			};
 		}
 		
 		public void setLine(Line line_) {
@@ -1349,14 +3130,19 @@ public class Schedule implements Serializable {
 			return line;
 		}
 		
-		public LinkedList<Schedule.Link> getLinks() {
-			return links;
+		public List<Schedule.Link> getLinks() {
+			return links == null ? null : Collections.unmodifiableList(Arrays.asList(links));
 		}
 
 		public void setRemind(boolean remind_) {
 			if (remind != remind_) {
 				remind = remind_;
-				newData |= fullyLoaded;
+				if (remind) {
+					addStarred(this);
+				} else {
+					removeStarred(this);
+				}
+				// Saved right away, no need to go through dirty.
 				applyItem(this);
 			}
 		}
@@ -1368,7 +3154,12 @@ public class Schedule implements Serializable {
 		public void setHidden(boolean hidden) {
 			if (hidden != this.hidden) {
 				this.hidden = hidden;
-				newData |= fullyLoaded;
+				if (fullyLoaded) {
+					synchronized (dirty) {
+						dirty.add(this);
+					}
+				}
+				version++;
 			}
 		}
 		
@@ -1376,25 +3167,78 @@ public class Schedule implements Serializable {
 			return hidden;
 		}
 
-		public void commit() {
-			if (newData) {
-				applyItem(this);
-				newData = false;
+		/* For merge(): Whether other (from a new parse of the same file) has the same contents. */
+		private boolean sameAs(Item o) {
+			return Objects.equals(title, o.title) && Objects.equals(subtitle, o.subtitle) &&
+			       Objects.equals(rawDescription(), o.rawDescription()) &&
+			       start == o.start && end == o.end &&
+			       line.title.equals(o.line.title) &&
+			       Objects.equals(track == null ? null : track.title, o.track == null ? null : o.track.title) &&
+			       Objects.equals(language, o.language) && Objects.equals(webLink, o.webLink) &&
+			       Objects.equals(getSpeakers(), o.getSpeakers()) && linkUrls().equals(o.linkUrls());
+		}
+
+		private ArrayList<String> linkUrls() {
+			ArrayList<String> ret = new ArrayList<>();
+			if (links != null) {
+				for (Link l : links) {
+					ret.add(l.url + " " + l.title + " " + l.type);
+				}
+			}
+			return ret;
+		}
+
+		/* Static data only, so not remind/hidden which is ours. Also not line/track, see link().
+		   The key stays as it is even if the id changed: it's also hashCode(), and this item may
+		   be sitting in hash sets (dirty, Db's write queue) or DescriptionRenderer's cache. */
+		private void copyFrom(Item o) {
+			id = o.id;
+			title = o.title;
+			subtitle = o.subtitle;
+			// Onto the heap, o's descBlob will be gone soon.
+			description = o.rawDescription();
+			descOff = descLen = 0;
+			descriptionHtml = o.descriptionHtml;
+			start = o.start;
+			end = o.end;
+			tz = o.tz;
+			startZoned = endZoned = null;
+			language = o.language;
+			webLink = o.webLink;
+			speakers = null;
+			if (o.speakers != null) {
+				// Ids are per schedule so go through the names.
+				List<String> names = o.getSpeakers();
+				speakers = new int[names.size()];
+				for (int i = 0; i < speakers.length; ++i) {
+					speakers[i] = speakerId(names.get(i));
+				}
+			}
+			links = null;
+			if (o.links != null) {
+				// Re-create so we don't keep the other Schedule alive through Link.this.
+				links = new Link[o.links.length];
+				for (int i = 0; i < links.length; ++i) {
+					Link ol = o.links[i], l = new Link();
+					l.url = ol.url;
+					l.title = ol.title;
+					l.type = ol.type;
+					links[i] = l;
+				}
 			}
 		}
 
 		@Override
 		public int compareTo(Item another) {
 			int ret;
-			if (this == null || startTime == null || getTitle() == null ||
-			    another == null || another.startTime == null || another.getTitle() == null) {
+			if (this == null || getTitle() == null || another == null || another.getTitle() == null) {
 				// Shouldn't happen in normal operation anyway, but it does happen during
 				// de-serialisation for some reason :-( (Possibly because a "hollow" duplicate of an
 				// object is restored before the filled in original?)
 				// Log.d("Schedule.Item.compareTo", "null-ish object passed");
 				return -123;
 			}
-			if ((ret = startTime.compareTo(another.startTime)) != 0) {
+			if ((ret = Long.compare(start, another.start)) != 0) {
 				return ret;
 			} else if ((ret = getTitle().compareTo(another.getTitle())) != 0)
 				return ret;
@@ -1407,9 +3251,9 @@ public class Schedule implements Serializable {
 			/* 0 if the event is "now" (d==now),
 			 * -1 if it's in the future,
 			 * 1 if it's in the past. */
-			if (d.before(getStartTime()))
+			if (d.getTime() < start * 1000)
 				return -1;
-			else if (getEndTime().after(d))
+			else if (end * 1000 > d.getTime())
 				return 0;
 			else
 				return 1;
@@ -1419,9 +3263,14 @@ public class Schedule implements Serializable {
 			/* 0 if the event is "now" (d==now),
 			 * -1 if it's in the future,
 			 * 1 if it's in the past. */
-			if (d.isBefore(startTime))
+			return compareTo(d.toEpochSecond());
+		}
+
+		/* Same for epoch seconds. */
+		private int compareTo(long t) {
+			if (t < start)
 				return -1;
-			else if (endTime.isAfter(d))
+			else if (end > t)
 				return 0;
 			else
 				return 1;
@@ -1429,8 +3278,8 @@ public class Schedule implements Serializable {
 
 		public boolean overlaps(Item other) {
 			// True if other's start- or end-time is during our event, or if it starts before and ends after ours.
-			return (compareTo(other.startTime) == 0 || compareTo(other.endTime.minusSeconds(1)) == 0 ||
-			        (!other.startTime.isAfter(startTime) && !other.endTime.isBefore(endTime)));
+			return (compareTo(other.start) == 0 || compareTo(other.end - 1) == 0 ||
+			        (other.start <= start && other.end >= end));
 		}
 	}
 
@@ -1452,6 +3301,10 @@ public class Schedule implements Serializable {
 			this(url_, url_);
 		}
 
+		// For loadSnapshot(), which fills in the (already validated) fields itself.
+		private Link() {
+		}
+
 		public String getUrl() {
 			return url;
 		}
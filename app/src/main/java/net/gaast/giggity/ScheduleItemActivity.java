@@ -55,14 +55,7 @@ public class ScheduleItemActivity extends Activity {
 
 		AbstractList<Schedule.Item> others = null;
 		if (getIntent().hasExtra("others")) {
-			others = new ArrayList<Schedule.Item>();
-			String[] ids = getIntent().getStringArrayExtra("others");
-			for (String oid : ids) {
-				Schedule.Item other_item = sched.getItem(oid);
-				if (other_item != null) {
-					others.add(other_item);
-				}
-			}
+			others = sched.getItemsByKey(getIntent().getLongArrayExtra("others"));
 		}
 
 		pager_ = new EventDialogPager(this, item, others, getIntent().getStringExtra("search_query"));
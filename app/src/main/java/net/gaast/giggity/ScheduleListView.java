@@ -217,7 +217,7 @@ public class ScheduleListView extends ListView implements ScheduleViewer {
 				if ((itemListFlags & ScheduleItemView.HIDE_ENDTIME) > 0) {
 					if (position < (items.size() - 1) && items.get(position + 1).getClass() == Schedule.Item.class) {
 						Schedule.Item it2 = (Schedule.Item) items.get(position + 1);
-						if (it1.getLine().equals(it2.getLine()) && it1.getEndTime().equals(it2.getStartTime())) {
+						if (it1.getLine().equals(it2.getLine()) && it1.getEndEpoch() == it2.getStartEpoch()) {
 							flags |= ScheduleItemView.HIDE_ENDTIME;
 						}
 					}
@@ -5,18 +5,25 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
 import android.util.Log;
 import android.view.View;
 
 import org.apache.commons.io.output.NullOutputStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Date;
 
 public class ScheduleUI extends Schedule {
 	/* Schedule subclass which should carry, among other things, elements that depend on Android.
@@ -29,11 +36,18 @@ public class ScheduleUI extends Schedule {
 
 	private Handler progressHandler;
 
+	// Non-null while restoring user data from the db, applyItem() then just collects the items here
+	// so that app.updateRemind() can do them all in one go afterwards.
+	private ArrayList<Item> restored;
+
+	// System.nanoTime() of the last Giggity.getSchedule() returning this, for trimSchedules().
+	volatile long lastUsed;
+
 	private ScheduleUI(Giggity ctx) {
 		app = ctx;
 	}
 
-	public static ScheduleUI loadSchedule(Giggity ctx, String url, Fetcher.Source source, Handler progressHandler) throws LoadException {
+	public static ScheduleUI loadSchedule(Giggity ctx, Giggity.ScheduleLoad load, String url, Fetcher.Source source, Handler progressHandler) throws LoadException {
 		ScheduleUI ret = new ScheduleUI(ctx);
 		ret.progressHandler = progressHandler;
 
@@ -41,43 +55,36 @@ public class ScheduleUI extends Schedule {
 			// TODO: Test this uncommon codepath to ensure noop handlers are noop and not crashop.
 			// (Can't test this now because it looks like reminders are kinda broken... :< )
 			ret.progressHandler = new Handler();
+		} else {
+			ret.setDayListener(ret.new PreviewSender(ctx.getDb().getSchedule(url)));
 		}
 
-		Db.DbSchedule ds = ctx.getDb().getSchedule(url);
-		if (ds != null) {
-			String tz = ds.getTimezone();
-			if (tz != null && !tz.isEmpty()) {
-				ret.setInTZ(ZoneId.of(tz));
-			}
-		}
-
-		Fetcher f = null;
-
-		try {
-			f = ctx.fetch(url, source);
-			f.setProgressHandler(ret.progressHandler);
-			if (f.fromCache()) {
-				// Disable the "load from cache" button since we're doing that already. */
-				ret.progressHandler.sendEmptyMessage(ScheduleViewActivity.LoadProgress.FROM_CACHE);
-			}
-			ret.loadSchedule(f.getReader(), url);
-		} catch (LoadException | IOException e) {
-			Log.e("Schedule.loadSchedule", "Exception while downloading schedule: " + e);
-			e.printStackTrace();
-			throw new LoadException("Network I/O problem: " + e);
-		}
-		f.keep();
+		Fetcher f = ret.fetchAndParse(url, source);
+		ret.setDayListener(null);
 
 		// Disable the "fall back to cache" button at this stage if it's even shown, since we're
 		// nearly done, only need to apply user/dynamic data.
 		ret.progressHandler.sendEmptyMessage(ScheduleViewActivity.LoadProgress.STATIC_DONE);
-		if (ret.app.hasSchedule(url)) {
-			// TODO: Theoretically, online could still win the race over cached..
+		if (!load.claim()) {
+			// Only happens if the user fell back to the cached copy while we were downloading, see
+			// Giggity.getSchedule(). Bail out before touching the db or reminders.
 			throw new Schedule.LateException();
 		}
 
 		ret.db = ret.app.getDb();
+		ret.restored = new ArrayList<>();
 		ret.db.setSchedule(ret, url, f.isFresh());
+		final ArrayList<Item> restored = ret.restored;
+		ret.restored = null;
+		// remindItems is main thread only, see Giggity.trimSchedules(). Queued ahead of anything
+		// our caller posts once we return (like LoadProgress.DONE), so that still sees them.
+		final Giggity app = ret.app;
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				app.updateRemind(restored);
+			}
+		});
 		String md_json = ret.db.getMetadata();
 		if (md_json != null) {
 			ret.addMetadata(md_json);
@@ -86,9 +93,178 @@ public class ScheduleUI extends Schedule {
 		/* From now, changes should be marked to go back into the db. */
 		ret.fullyLoaded = true;
 
+		// Usually a no-op, but if the schedule was updated, get the search index up to date now
+		// instead of when the user opens search.
+		final ArrayList<Item> items = new ArrayList<>(ret.allItems.values());
+		final Db.Connection db = ret.db;
+		new Thread("SearchIndex") {
+			@Override
+			public void run() {
+				db.resetIndex(items);
+			}
+		}.start();
+
 		return ret;
 	}
 
+	/* Progressive loading: as soon as the day the user will most likely look at first is parsed,
+	   send a preview() of it to the loading screen so it has something to show already. That's
+	   today if it's during the conference (going by what the db remembers from last time), or the
+	   day they were looking at last time, or just the first one if we've never seen this schedule. */
+	private class PreviewSender implements DayListener {
+		private boolean during;
+		private int lastDay;
+		private int days;
+		private boolean sent;
+
+		PreviewSender(Db.DbSchedule dbs) {
+			if (dbs != null) {
+				Date now = new Date();
+				during = !now.before(dbs.getStart()) && now.before(dbs.getEnd());
+				lastDay = dbs.getDay();
+			}
+		}
+
+		@Override
+		public void onDayLoaded(Schedule sched, LocalDate day) {
+			days++;
+			if (sent) {
+				return;
+			}
+			if (during ? day.isBefore(LocalDate.now(getInTZ())) : days <= lastDay) {
+				return;
+			}
+			sent = true;
+			Schedule preview = preview();
+			if (preview != null) {
+				progressHandler.sendMessage(Message.obtain(progressHandler, ScheduleViewActivity.LoadProgress.PREVIEW, preview));
+			}
+		}
+	}
+
+	/* Fetch + parse, shared by loadSchedule() and reload(). Returns the Fetcher so the caller can
+	   keep() it once happy with the result. */
+	private Fetcher fetchAndParse(String url, Fetcher.Source source) throws LoadException {
+		Db.DbSchedule ds = app.getDb().getSchedule(url);
+		if (ds != null) {
+			String tz = ds.getTimezone();
+			if (tz != null && !tz.isEmpty()) {
+				setInTZ(ZoneId.of(tz));
+			}
+		}
+
+		Fetcher f;
+		try {
+			f = app.fetch(url, source);
+			if (progressHandler != null) {
+				f.setProgressHandler(progressHandler);
+				if (f.fromCache()) {
+					// Disable the "load from cache" button since we're doing that already. */
+					progressHandler.sendEmptyMessage(ScheduleViewActivity.LoadProgress.FROM_CACHE);
+				}
+			}
+			File snapshot = new File(new File(app.getCacheDir(), "snapshots"), hashify(url));
+			if (snapshot.exists() && f.fromCache()) {
+				// Local data and probably unchanged: slurp it all first so we can check whether
+				// the snapshot is of this exact file.
+				ByteArrayOutputStream raw = new ByteArrayOutputStream();
+				Giggity.copy(f.getStream(), raw);
+				loadSchedule(raw.toByteArray(), url, snapshot);
+			} else {
+				// Fresh from the network (so slow, and most likely changed): parse as it comes in.
+				loadSchedule(f.getStream(), url, snapshot);
+			}
+		} catch (LoadException | IOException e) {
+			Log.e("Schedule.loadSchedule", "Exception while downloading schedule: " + e);
+			e.printStackTrace();
+			throw new LoadException("Network I/O problem: " + e);
+		}
+		return f;
+	}
+
+	/** Refresh an already loaded schedule in place: fetch + parse a new copy in the background,
+	 *  then (on ui's thread) merge() it into this one, update the db/search index rows of items
+	 *  that actually changed in the background again, and finally (on ui's thread) their
+	 *  reminders. Listeners get the ChangeSet, also if it's empty. progress (optional) gets
+	 *  download progress, then DONE or the exception like with loadSchedule(). This copy stays
+	 *  as it is if the reload fails. */
+	public void reload(final Fetcher.Source source, final Handler ui, final Handler progress) {
+		new Thread() {
+			@Override
+			public void run() {
+				final ScheduleUI fresh = new ScheduleUI(app);
+				fresh.progressHandler = progress;
+				final Fetcher f;
+				try {
+					f = fresh.fetchAndParse(getUrl(), source);
+				} catch (LoadException e) {
+					Log.e("ScheduleUI.reload", "Reload failed: " + e);
+					if (progress != null) {
+						progress.sendMessage(Message.obtain(progress, 0, e));
+					}
+					return;
+				}
+				ui.post(new Runnable() {
+					@Override
+					public void run() {
+						if (fresh.sourceHash != null && fresh.sourceHash.equals(sourceHash)) {
+							f.keep();
+							notifyChanged(new ChangeSet());
+							if (progress != null) {
+								progress.sendEmptyMessage(ScheduleViewActivity.LoadProgress.DONE);
+							}
+							return;
+						}
+						// Items may get modified in place, which would upset the TreeSet holding reminders.
+						app.forgetReminders(ScheduleUI.this);
+						final ChangeSet changes = merge(fresh);
+						sourceHash = fresh.sourceHash;
+						if (changes.isEmpty()) {
+							finishReload(changes, new ArrayList<Db.Connection.SavedState>(), f, progress);
+							return;
+						}
+						new Thread("ApplyChanges") {
+							@Override
+							public void run() {
+								final ArrayList<Db.Connection.SavedState> saved = db.applyChanges(changes);
+								ui.post(new Runnable() {
+									@Override
+									public void run() {
+										finishReload(changes, saved, f, progress);
+									}
+								});
+							}
+						}.start();
+					}
+				});
+			}
+		}.start();
+	}
+
+	private void finishReload(ChangeSet changes, ArrayList<Db.Connection.SavedState> saved, Fetcher f, Handler progress) {
+		// Stars restored here for items that are back are covered by the loop below.
+		restored = new ArrayList<>();
+		for (Db.Connection.SavedState st : saved) {
+			st.item.setRemind(st.remind);
+			st.item.setHidden(st.hidden);
+		}
+		restored = null;
+		ArrayList<Item> items = new ArrayList<>();
+		for (Item item : allItems.values()) {
+			if (item.getRemind()) {
+				items.add(item);
+			}
+		}
+		// Cancels alarms if any.
+		items.addAll(changes.removed);
+		app.updateRemind(items);
+		f.keep();
+		notifyChanged(changes);
+		if (progress != null) {
+			progress.sendEmptyMessage(ScheduleViewActivity.LoadProgress.DONE);
+		}
+	}
+
 	public String getString(int id) {
 		return app.getString(id);
 	}
@@ -170,26 +346,55 @@ public class ScheduleUI extends Schedule {
 	}
 
 	protected void applyItem(Item item) {
+		if (restored != null) {
+			restored.add(item);
+			return;
+		}
 		if (fullyLoaded) {
 			db.saveScheduleItem(item);
 		}
 		app.updateRemind(item);
 	}
 
+	protected void applyItems(Collection<Item> items) {
+		if (fullyLoaded) {
+			db.saveScheduleItems(items);
+		}
+		app.updateRemind(items);
+	}
+
+	/** Also pushes out anything still sitting in the Db's write queue (without waiting for it). */
+	@Override
+	public void commit() {
+		super.commit();
+		if (db != null) {
+			db.flush();
+		}
+	}
+
 	public void initSearch() {
 		db.resetIndex(allItems.values());
 	}
 
 	public AbstractList<Item> searchItems(String q_) {
-		Collection<String> ids = db.searchItems(q_);
+		return searchItems(q_, null);
+	}
+
+	/** Same, but can be aborted halfway through by cancelling cancel, which then makes it throw
+	 *  OperationCanceledException. Meant to run in the background, see ItemSearch. */
+	public AbstractList<Item> searchItems(String q_, CancellationSignal cancel) {
+		Collection<String> ids = db.searchItems(q_, cancel);
 		if (ids == null) {
 			return null;
 		}
-		LinkedList<Item> ret = new LinkedList<Item>();
+		ArrayList<Item> ret = new ArrayList<>(ids.size());
 		Log.d("searchItems", "" + ids.size() + " items");
 		for (String id : ids) {
-//			Log.d("searchItems", "id=" + id + " " + allItems.containsKey(id));
-			ret.add(allItems.get(id));
+			Item item = allItems.get(id);
+			// Could be missing if the index is a little behind a reload().
+			if (item != null) {
+				ret.add(item);
+			}
 		}
 		return ret;
 	}
@@ -34,6 +34,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
@@ -43,6 +44,7 @@ import android.preference.PreferenceManager;
 import android.transition.Explode;
 import android.util.Base64;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -284,6 +286,19 @@ public class ScheduleViewActivity extends Activity {
 		if (app.hasSchedule(url)) {
 			sched = app.getCachedSchedule(url);
 			onScheduleLoaded();
+			if (getIntent().getBooleanExtra("PREFER_ONLINE", false)) {
+				// Already in memory, so refresh it in place instead of loading all over again.
+				LoadProgressDialog prog = new LoadProgressDialog(this);
+				prog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+					@Override
+					public void onCancel(DialogInterface dialog) {
+						// Unlike a first load, there's something to show already so just carry on
+						// with that. The reload continues in the background and gets merged in later.
+					}
+				});
+				prog.show();
+				sched.reload(Fetcher.Source.DEFAULT, timer, prog.getUpdater());
+			}
 		} else {
 			Fetcher.Source fs;
 			if (getIntent().getBooleanExtra("PREFER_ONLINE", false))
@@ -307,6 +322,9 @@ public class ScheduleViewActivity extends Activity {
 
 	@Override
 	public void onDestroy() {
+		if (sched != null) {
+			sched.removeChangeListener(scheduleChanged);
+		}
 		this.unregisterReceiver(tzClose);
 		super.onDestroy();
 	}
@@ -407,6 +425,10 @@ public class ScheduleViewActivity extends Activity {
 						if (idler != null) {
 							idler.decrement();
 						}
+					} else if (msg.what == PREVIEW) {
+						// First part of the schedule is in already, show it while the rest loads.
+						showPreview((Schedule) msg.obj);
+						shrink();
 					} else if (msg.what == FROM_CACHE) {
 						// Fetcher reports we're already reading from cache anyway.
 						findViewById(R.id.load_cached).setEnabled(false);
@@ -438,6 +460,16 @@ public class ScheduleViewActivity extends Activity {
 			});
 		}
 
+		/* Turn from a full-screen overlay into a card at the bottom so a preview can be seen. */
+		private void shrink() {
+			ViewGroup back = (ViewGroup) getChildAt(0);
+			back.setBackgroundColor(Color.TRANSPARENT);
+			FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) back.getChildAt(0).getLayoutParams();
+			lp.gravity = Gravity.BOTTOM;
+			back.getChildAt(0).setLayoutParams(lp);
+			bringToFront();
+		}
+
 		public void setTitle(Db.DbSchedule dbs) {
 			LinearLayout tb = findViewById(R.id.titleBar);
 			tb.removeViewAt(0);
@@ -466,6 +498,7 @@ public class ScheduleViewActivity extends Activity {
 		void fallBack();
 	}
 	interface LoadProgress {
+		public static final int PREVIEW = 999996;      // Part of the schedule, see ScheduleUI.PreviewSender
 		public static final int FROM_CACHE = 999997;   // This data is coming from cache
 		public static final int STATIC_DONE = 999998;  // Done loading static data, only db stuff left to do
 		public static final int DONE = 999999;
@@ -495,6 +528,9 @@ public class ScheduleViewActivity extends Activity {
 		prog.setFallBack(new LoadProgressFallBackInterface() {
 			@Override
 			public void fallBack() {
+				// If the online load turns out to be too far along to give up, the cached one
+				// ends up with its result and will take care of showing it.
+				prog.setDone(null);
 				viewerContainer.removeView((View) prog);
 				loadScheduleAsync(url, Fetcher.Source.CACHE_ONLY);
 			}
@@ -511,7 +547,8 @@ public class ScheduleViewActivity extends Activity {
 					}
 				} catch (Schedule.LateException e) {
 					Log.d("LateException", "" + prog.getUpdater());
-					// Hrm, we lost the race. TODO: Figure out what, but for now do nothing.
+					// The user fell back to the cached copy and that load took over from this one.
+					// Its own loader thread takes care of showing it, nothing left to do here.
 				} catch (Throwable t) {
 					t.printStackTrace();
 					if (prog.getUpdater() != null) {
@@ -522,6 +559,23 @@ public class ScheduleViewActivity extends Activity {
 		}.start();
 	}
 
+	/* Show a partially loaded schedule (its last day) until sched is there. Read-only, see showItem(). */
+	private void showPreview(Schedule preview) {
+		if (sched != null) {
+			return;
+		}
+		preview.setDay(preview.getDays().size() - 1);
+		setTitle(preview.getDayFormat().format(preview.getDays().getLast()) + ", " + preview.getTitle());
+		if (curView == R.id.timetable) {
+			setScheduleView(new TimeTable(this, new ArrayList<Schedule.ItemList>(preview.getTents())));
+		} else if (curView == R.id.tracks && preview.getTracks() != null) {
+			setScheduleView(new TimeTable(this, new ArrayList<Schedule.ItemList>(preview.getTracks())));
+		} else {
+			// Other views don't make much sense for a single day, or without our db data.
+			setScheduleView(new BlockSchedule(this, preview));
+		}
+	}
+
 	/* Refreshes every minute. No network stuff here as it's scheduled to be at :00 second
 	   (and automatically reschedules for that). */
 	private Runnable minuteRefresher = new Runnable() {
@@ -588,7 +642,18 @@ public class ScheduleViewActivity extends Activity {
 		timer.removeCallbacks(updateRoomStatus);
 	}
 
+	private Schedule.ChangeListener scheduleChanged = new Schedule.ChangeListener() {
+		@Override
+		public void onScheduleChanged(Schedule s, Schedule.ChangeSet changes) {
+			if (!changes.isEmpty()) {
+				redrawSchedule();
+				updateNavDrawer();
+			}
+		}
+	};
+
 	private void onScheduleLoaded() {
+		sched.addChangeListener(scheduleChanged);
 		drawerLayout.setDrawerLockMode(DrawerLayout.LOCK_MODE_UNLOCKED);
 		drawerToggle.setDrawerIndicatorEnabled(true);
 		invalidateOptionsMenu();
@@ -846,10 +911,12 @@ public class ScheduleViewActivity extends Activity {
 		/* User tapped on a reminder? */
 		if (showEventId != null) {
 			Schedule.Item item = sched.getItem(showEventId);
-			/* Converting back and forth between item objects and just id strings is a little crappy but meh.. */
+			/* Converting back and forth between item objects and just keys is a little crappy but meh.. */
 			ArrayList<Schedule.Item> items = new ArrayList<>();
-			if (getIntent().hasExtra("others")) {
-				Log.d("ScheduleViewActivity", "Copying others object :-/");
+			if (getIntent().getLongArrayExtra("others") != null) {
+				items = sched.getItemsByKey(getIntent().getLongArrayExtra("others"));
+			} else if (getIntent().getStringArrayExtra("others") != null) {
+				// Notification posted by a version that still used id strings.
 				for (String id : getIntent().getStringArrayExtra("others")) {
 					Schedule.Item other_item = sched.getItem(id);
 					if (other_item != null) {
@@ -893,8 +960,9 @@ public class ScheduleViewActivity extends Activity {
 			bigScreen.removeView(eventDialogView);
 			eventDialogView = null;
 		}
-		/* And nothing else to do if we're cleaning up only. */
-		if (item == null) {
+		/* And nothing else to do if we're cleaning up only. Or if it's from a preview, which isn't
+		   hooked up to anything so starring etc. would just get lost. */
+		if (item == null || item.getSchedule() != sched) {
 			return;
 		}
 
@@ -918,12 +986,8 @@ public class ScheduleViewActivity extends Activity {
 			Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(item.getUrl()),
 					this, ScheduleItemActivity.class);
 			if (others != null) {
-				ArrayList<String> ids = new ArrayList<>();
-				for (Schedule.Item o : others) {
-					ids.add(o.getId());
-				}
 				intent.putExtra("search_query", searchQuery);
-				intent.putExtra("others", ids.toArray(new String[others.size()]));
+				intent.putExtra("others", Schedule.getKeys(others));
 			}
 			ActivityOptions options = null;
 			if (animationOrigin != null) {
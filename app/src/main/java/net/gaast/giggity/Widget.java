@@ -33,16 +33,16 @@ public class Widget extends AppWidgetProvider {
 		Giggity app = (Giggity) ctx.getApplicationContext();
 		String title = "", time = "", room = "", url = "";
 		Schedule.Item show_item = null;
-		ArrayList<String> others = new ArrayList<>();
+		ArrayList<Schedule.Item> others = new ArrayList<>();
 		
 		Log.d("WIDGET", "onUpdate " + app.getRemindItems().size() + " items");
 		
 		for (Schedule.Item item : app.getRemindItems()) {
 			if (show_item != null) {
 				if (item.getSchedule() == show_item.getSchedule()) {
-					others.add(item.getId());
+					others.add(item);
 				}
-			} else if (item.getStartTime().after(new Date())) {
+			} else if (item.getStartEpoch() * 1000 > System.currentTimeMillis()) {
 				Format df;
 				
 				if ((item.getSchedule().getLastTime().getTime() -
@@ -53,7 +53,7 @@ public class Widget extends AppWidgetProvider {
 					df = new SimpleDateFormat(ctx.getResources().getString(R.string.widg_shortdate));
 
 				show_item = item;
-				others.add(item.getId());
+				others.add(item);
 				time = df.format(item.getStartTime());
 				title = item.getTitle();
 				room = item.getLine().getTitle();
@@ -89,7 +89,7 @@ public class Widget extends AppWidgetProvider {
 			   re-load the schedule if we got killed in the meantime. SIA can't do that. */
 			Intent evi = new Intent(Intent.ACTION_VIEW, Uri.parse(url), app, ScheduleViewActivity.class);
 			if (!others.isEmpty()) {
-				evi.putExtra("others", others.toArray(new String[others.size()]));
+				evi.putExtra("others", Schedule.getKeys(others));
 			}
 			PendingIntent pi = PendingIntent.getActivity(app, 0, evi, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 			v.setOnClickPendingIntent(R.id.title, pi);
@@ -0,0 +1,82 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+// android.jar only has stubs of this one, Gson has the same class (same author even) so just wrap.
+public class JsonReader implements Closeable {
+	private com.google.gson.stream.JsonReader r;
+
+	public JsonReader(Reader in) {
+		r = new com.google.gson.stream.JsonReader(in);
+	}
+
+	public void setLenient(boolean lenient) {
+		r.setLenient(lenient);
+	}
+
+	public boolean isLenient() {
+		return r.isLenient();
+	}
+
+	public void beginArray() throws IOException {
+		r.beginArray();
+	}
+
+	public void endArray() throws IOException {
+		r.endArray();
+	}
+
+	public void beginObject() throws IOException {
+		r.beginObject();
+	}
+
+	public void endObject() throws IOException {
+		r.endObject();
+	}
+
+	public boolean hasNext() throws IOException {
+		return r.hasNext();
+	}
+
+	public JsonToken peek() throws IOException {
+		return JsonToken.valueOf(r.peek().name());
+	}
+
+	public String nextName() throws IOException {
+		return r.nextName();
+	}
+
+	public String nextString() throws IOException {
+		return r.nextString();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		return r.nextBoolean();
+	}
+
+	public void nextNull() throws IOException {
+		r.nextNull();
+	}
+
+	public double nextDouble() throws IOException {
+		return r.nextDouble();
+	}
+
+	public long nextLong() throws IOException {
+		return r.nextLong();
+	}
+
+	public int nextInt() throws IOException {
+		return r.nextInt();
+	}
+
+	public void skipValue() throws IOException {
+		r.skipValue();
+	}
+
+	public void close() throws IOException {
+		r.close();
+	}
+}
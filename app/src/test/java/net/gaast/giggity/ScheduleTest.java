@@ -13,14 +13,20 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -163,6 +169,20 @@ public class ScheduleTest extends TestCase {
 
 		assertThat(s.getLinks(), hasSize(3));
 
+		// Zoned times get cached until the output timezone changes.
+		ZonedDateTime st = it.getStartTimeZoned();
+		assertThat(it.getStartTimeZoned(), sameInstance(st));
+		assertThat(it.getStartEpoch(), is(st.toEpochSecond()));
+		s.setOutTZ(ZoneId.of("Asia/Tokyo"));
+		assertThat(it.getStartTimeZoned().getZone(), is(ZoneId.of("Asia/Tokyo")));
+		assertThat(it.getStartTimeZoned().toInstant(), is(st.toInstant()));
+
+		// Markdown with <p> tags around the paragraphs, which get turned into blank lines at load time.
+		it = s.getItem("10837");
+		Assert.assertFalse(it.isDescriptionHtml());
+		assertThat(it.getDescription(), startsWith("File descriptor monitoring is at the core"));
+		assertThat(it.getDescription(), not(containsString("<p>")));
+
 		// TODO: s.updateRoomStatus(json string) ?
 	}
 
@@ -206,6 +226,29 @@ public class ScheduleTest extends TestCase {
 
 		assertThat(s.getLinks(), hasSize(2));
 
+		// Speaker names and identical links are stored only once, not per talk.
+		HashMap<String,String> speakers = new HashMap<>();
+		HashMap<String,Schedule.Link> links = new HashMap<>();
+		for (Schedule.Line line : s.getTents()) {
+			for (Schedule.Item it : line.getItems()) {
+				if (it.getSpeakers() != null) {
+					for (String sp : it.getSpeakers()) {
+						speakers.putIfAbsent(sp, sp);
+						assertThat(sp, sameInstance(speakers.get(sp)));
+					}
+				}
+				if (it.getLinks() != null) {
+					for (Schedule.Link l : it.getLinks()) {
+						String k = l.getUrl() + " " + l.getTitle() + " " + l.getType();
+						links.putIfAbsent(k, l);
+						assertThat(l, sameInstance(links.get(k)));
+					}
+				}
+			}
+		}
+		assertThat(speakers.size(), greaterThan(500));
+		assertThat(links.size(), greaterThan(100));
+
 		Schedule.Item it = s.getItem("017b6087-ac16-4968-8beb-051596720f24");  // id=1230
 		assertThat(it.getTitle(), is("Detox Seaweed Bibimbab"));
 		assertThat(it.getTrack().getTitle(), is("self organized sessions"));
@@ -276,6 +319,11 @@ public class ScheduleTest extends TestCase {
 		assertThat(s.setDay(0).getDayOfWeek(), is(DayOfWeek.SUNDAY));
 		assertThat(s.setDay(5).getDayOfWeek(), is(DayOfWeek.FRIDAY));
 		assertThat(s.setDay(-1), nullValue());
+
+		// Real HTML, stays that way.
+		Schedule.Item it = s.getItem("108@lca2020.linux.org.au");
+		Assert.assertTrue(it.isDescriptionHtml());
+		assertThat(it.getDescription(), containsString("<a href="));
 	}
 
 	@Test
@@ -302,6 +350,11 @@ public class ScheduleTest extends TestCase {
 		assertThat(s.setDay(3).getDayOfWeek(), is(DayOfWeek.FRIDAY));
 		assertThat(s.getTents(), hasSize(5));
 		assertThat(s.setDay(-1), nullValue());
+
+		// Continuation lines after the odd CRCRLF newlines in this file used to get lost.
+		Schedule.Item it = s.getItem("presentation_10@conf-ng.jres.org");
+		assertThat(it.getDescription(), containsString("\n\nAujourd'hui, nous"));
+		assertThat(it.getDescription(), containsString("\nComment passe-t-on"));
 	}
 
 	@Test
@@ -327,5 +380,337 @@ public class ScheduleTest extends TestCase {
 			assertThat(first.getTitle(), equalTo("Breakfast"));
 			assertThat(last.getTitle(), equalTo("Dinner"));
 		}
+
+		ZoneId kol = ZoneId.of("Asia/Kolkata");
+		assertThat(s.setDay(ZonedDateTime.of(2023, 9, 11, 13, 0, 0, 0, kol)), is(1));
+		assertThat(s.getFirstTimeZoned().withZoneSameInstant(kol).getDayOfMonth(), is(11));
+		assertThat(s.setDay(ZonedDateTime.of(2023, 9, 12, 3, 0, 0, 0, kol)), is(1));
+		assertThat(s.setDay(ZonedDateTime.of(2023, 9, 1, 12, 0, 0, 0, kol)), is(-1));
+	}
+
+	@Test
+	public void testDebconf23Json() {
+		// Same schedule as above, converted to Frab's/C3VOC's schedule.json format.
+		load("debconf23.schedule.json");
+		Schedule json = s;
+		s = new Schedule();
+		load("debconf23.xml");
+
+		assertThat(json.getTitle(), is("DebConf 23"));
+		assertThat(json.getDays(), equalTo(s.getDays()));
+		for (int d = -1; d < 8; ++d) {
+			json.setDay(d);
+			s.setDay(d);
+			assertThat(setNames(json.getTents()), equalTo(setNames(s.getTents())));
+			assertThat(setNames(json.getTracks()), equalTo(setNames(s.getTracks())));
+		}
+
+		for (Schedule.Line room : s.getTents()) {
+			for (Schedule.Item it : room.getItems()) {
+				Schedule.Item it2 = json.getItem(it.getId());
+				assertThat(it2.getTitle(), equalTo(it.getTitle()));
+				assertThat(it2.getStartTimeZoned(), equalTo(it.getStartTimeZoned()));
+				assertThat(it2.getEndTimeZoned(), equalTo(it.getEndTimeZoned()));
+				assertThat(it2.getLine().getTitle(), equalTo(it.getLine().getTitle()));
+				assertThat(it2.getDescription(), equalTo(it.getDescription()));
+				assertThat(it2.getSpeakers(), equalTo(it.getSpeakers()));
+				assertThat(it2.getWebLink(), equalTo(it.getWebLink()));
+			}
+		}
+		assertThat(s.getCId("35"), equalTo("455d075f-48c0-2ec2-24b3-f5add30c383a"));
+		assertThat(json.getCId("35"), equalTo("455d075f-48c0-2ec2-24b3-f5add30c383a"));
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		load("36c3_merged.xml");
+		HashMap<String,String> descs = new HashMap<>();
+		for (Schedule.Line line : s.getTents()) {
+			for (Schedule.Item it : line.getItems()) {
+				descs.put(it.getId(), it.getDescription());
+			}
+		}
+		long parsedSize = s.estimateSize();
+		File fn = File.createTempFile("snapshot", ".bin");
+		fn.deleteOnExit();
+		s.saveSnapshot(fn, "key");
+		// Descriptions moved out of the heap.
+		assertThat(s.estimateSize(), lessThan(parsedSize / 2));
+
+		Schedule s2 = new Schedule();
+		s2.setOutTZ(ZoneId.of(tz_));
+		Assert.assertFalse(s2.loadSnapshot(fn, s.getUrl(), "otherkey"));
+		Assert.assertTrue(s2.loadSnapshot(fn, s.getUrl(), "key"));
+
+		assertThat(s2.getTitle(), is(s.getTitle()));
+		assertThat(s2.getDays(), equalTo(s.getDays()));
+		assertThat(setNames(s2.getTents()), equalTo(setNames(s.getTents())));
+		assertThat(setNames(s2.getTracks()), equalTo(setNames(s.getTracks())));
+		assertThat(s2.getByLanguage("German"), hasSize(551));
+		assertThat(s2.getCId("1230"), equalTo("017b6087-ac16-4968-8beb-051596720f24"));
+		for (int d = 0; d < s.getDays().size(); ++d) {
+			s.setDay(d);
+			s2.setDay(d);
+			assertThat(setNames(s2.getTents()), equalTo(setNames(s.getTents())));
+			assertThat(s2.getFirstTimeZoned(), equalTo(s.getFirstTimeZoned()));
+		}
+
+		Schedule.Item it = s.getItem("017b6087-ac16-4968-8beb-051596720f24");
+		Schedule.Item it2 = s2.getItem(it.getId());
+		assertThat(it2.getTitle(), is(it.getTitle()));
+		assertThat(it2.getStartTimeZoned(), equalTo(it.getStartTimeZoned()));
+		assertThat(it2.getEndTime(), equalTo(it.getEndTime()));
+		assertThat(it2.getDescription(), equalTo(it.getDescription()));
+		assertThat(it2.getSpeakers(), equalTo(it.getSpeakers()));
+		assertThat(it2.getLine().getTitle(), is(it.getLine().getTitle()));
+		assertThat(it2.getTrack().getTitle(), is(it.getTrack().getTitle()));
+
+		// Descriptions now come out of the snapshot file, on both sides.
+		for (Schedule.Line line : s2.getTents()) {
+			for (Schedule.Item i2 : line.getItems()) {
+				assertThat(i2.getDescription(), equalTo(descs.get(i2.getId())));
+				assertThat(s.getItem(i2.getId()).getDescription(), equalTo(descs.get(i2.getId())));
+			}
+		}
+
+		// Keys must survive restarts, alarm ids depend on them.
+		assertThat(it2.getKey(), equalTo(it.getKey()));
+		assertThat(it.hashCode(), equalTo((int) (it.getKey() >>> 32)));
+		assertThat(s2.getItemByKey(it.getKey()), sameInstance(it2));
+		assertThat(s2.getItemsByKey(Schedule.getKeys(s.getTents().iterator().next().getItems())),
+		           hasSize(s.getTents().iterator().next().getItems().size()));
+	}
+
+	@Test
+	public void testCorruptSnapshot() throws IOException {
+		load("debconf23.xml");
+		File fn = File.createTempFile("snapshot", ".bin");
+		fn.deleteOnExit();
+		s.saveSnapshot(fn, "key");
+
+		// Right after magic, version, key and url comes the number of strings.
+		int off = 4 + 4 + 4 + "key".length() + 4 + s.getUrl().getBytes("UTF-8").length;
+		for (int bad : new int[] {-1, Integer.MAX_VALUE}) {
+			try (RandomAccessFile f = new RandomAccessFile(fn, "rw")) {
+				f.seek(off);
+				f.writeInt(bad);
+			}
+			Schedule s2 = new Schedule();
+			Assert.assertFalse(s2.loadSnapshot(fn, s.getUrl(), "key"));
+		}
+	}
+
+	@Test
+	public void testStreamedLoad() throws IOException {
+		// Parsing straight off the stream must end up with the same hash (so snapshot key) as
+		// slurping it all first, and write a snapshot that the byte[] version will then pick up.
+		byte[] raw = IOUtils.toByteArray(getClass().getClassLoader().getResourceAsStream("debconf23.xml"));
+		File fn = File.createTempFile("snapshot", ".bin");
+		fn.deleteOnExit();
+		fn.delete();
+		String key = Schedule.hashify(raw) + " " + s.getInTZ().getId();
+		s.loadSchedule(new ByteArrayInputStream(raw), "https://example.org/debconf23.xml", fn);
+		assertThat(s.sourceHash, equalTo(Schedule.hashify(raw)));
+		assertTrue(fn.exists());
+
+		Schedule s2 = new Schedule();
+		s2.setOutTZ(ZoneId.of(tz_));
+		assertTrue(s2.loadSnapshot(fn, s.getUrl(), key));
+		assertThat(s2.getDays(), equalTo(s.getDays()));
+	}
+
+	@Test
+	public void testProgressive() {
+		final ArrayList<LocalDate> days = new ArrayList<>();
+		final ArrayList<Schedule> previews = new ArrayList<>();
+		s.setDayListener(new Schedule.DayListener() {
+			@Override
+			public void onDayLoaded(Schedule sched, LocalDate day) {
+				days.add(day);
+				previews.add(sched.preview());
+			}
+		});
+		load("debconf23.xml");
+
+		assertThat(days, hasSize(8));
+		assertThat(days.get(0), is(LocalDate.of(2023, 9, 9)));  // Day "starts" at 21:30 UTC
+		// Only the first day in the first preview, everything in the last one.
+		assertThat(previews.get(0).getDays(), hasSize(1));
+		assertThat(previews.get(0).getDays().getFirst().toLocalDate(), is(LocalDate.of(2023, 9, 10)));
+		assertThat(previews.get(7).getDays(), equalTo(s.getDays()));
+		assertThat(setNames(previews.get(7).getTents()), equalTo(setNames(s.getTents())));
+		Schedule.Item it = previews.get(0).getItem("455d075f-48c0-2ec2-24b3-f5add30c383a");
+		assertThat(it.getTitle(), is(s.getItem(it.getId()).getTitle()));
+		assertThat(it.getSchedule(), not(sameInstance(s)));
+	}
+
+	@Test
+	public void testProgressiveEmptyDay() throws IOException {
+		// Empty days don't count, getDays() doesn't have them either.
+		String xml = IOUtils.toString(getClass().getClassLoader().getResourceAsStream("debconf23.xml"));
+		xml = xml.replaceFirst("</day>", "</day><day index=\"99\" date=\"2023-09-10\"></day>");
+		final ArrayList<LocalDate> days = new ArrayList<>();
+		s.setDayListener(new Schedule.DayListener() {
+			@Override
+			public void onDayLoaded(Schedule sched, LocalDate day) {
+				days.add(day);
+			}
+		});
+		s.loadSchedule(new BufferedReader(new StringReader(xml)), "https://example.org/debconf23.xml");
+		assertThat(days, hasSize(8));
+	}
+
+	@Test
+	public void testMerge() throws IOException {
+		load("debconf23.xml");
+		Schedule.Item opening = s.getItem("455d075f-48c0-2ec2-24b3-f5add30c383a");
+		Schedule.Item gone = s.getItem("794a4f27-5ac4-6129-3c2c-459fdeed5ad7");
+		Schedule.Item renamed = s.getItem("81c3c7d7-bb3f-39ce-4016-bbc959de550f");
+		assertThat(gone, notNullValue());
+		int renamedHash = renamed.hashCode();
+
+		// Same file, mangled a little: a title change, a cancellation, an event that lost its guid
+		// (so id 36 now, which cIdMap should resolve) and a new event.
+		String xml = IOUtils.toString(getClass().getClassLoader().getResourceAsStream("debconf23.xml"));
+		xml = xml.replace("<title>Opening Ceremony</title>", "<title>Opening Ceremony (moved)</title>");
+		xml = xml.replaceFirst("(?s)<event id=\"211\".*?</event>", "");
+		xml = xml.replace("<event id=\"36\" guid=\"81c3c7d7-bb3f-39ce-4016-bbc959de550f\">", "<event id=\"36\">");
+		xml = xml.replaceFirst("(?s)(<event id=\"35\".*?</event>)",
+		                       "$1<event id=\"9999\"><date>2023-09-10T05:00:00+00:00</date><start>10:50</start>" +
+		                       "<duration>00:10</duration><room>Anamudi</room><title>Bonus</title></event>");
+		Schedule fresh = new Schedule();
+		fresh.setInTZ(ZoneId.of("Asia/Kolkata"));
+		fresh.loadSchedule(new BufferedReader(new StringReader(xml)), s.getUrl());
+
+		Schedule.ChangeSet changes = s.merge(fresh);
+		assertThat(changes.changed, containsInAnyOrder(opening, renamed));
+		assertThat(changes.removed, contains(gone));
+		assertThat(changes.added, hasSize(1));
+		assertThat(changes.renamed.get("81c3c7d7-bb3f-39ce-4016-bbc959de550f"), equalTo("36"));
+
+		assertThat(s.getItem(opening.getId()), sameInstance(opening));
+		assertThat(opening.getTitle(), equalTo("Opening Ceremony (moved)"));
+		assertThat(s.getItem(gone.getId()), nullValue());
+		assertThat(s.getItem("36"), sameInstance(renamed));
+		// Or it'd get lost in any HashSet it's in.
+		assertThat(renamed.hashCode(), is(renamedHash));
+		assertThat(s.getItemByKey(renamed.getKey()), sameInstance(renamed));
+		assertThat(s.getItem("9999").getLine(), sameInstance(opening.getLine()));
+		assertThat(opening.getLine().getItems(), hasItem(s.getItem("9999")));
+		assertThat(s.getDays(), hasSize(8));
+
+		// Nothing left to do the second time around.
+		assertTrue(s.merge(fresh).isEmpty());
+	}
+
+	@Test
+	public void testItemViews() {
+		load("debconf23.xml");
+		s.setDay(1);
+		Schedule.Line room = s.getTents().iterator().next();
+		Collection<Schedule.Item> items = room.getItems();
+		assertThat(room.getItems(), sameInstance(items));
+
+		Schedule.Item it = items.iterator().next();
+		it.setHidden(true);
+		assertThat(room.getItems(), not(hasItem(it)));
+		assertThat(room.getItems(), hasSize(items.size() - 1));
+		s.setShowHidden(true);
+		assertThat(room.getItems(), hasItem(it));
+		s.setDay(-1);
+		assertThat(room.getItems().size(), greaterThan(items.size()));
+
+		try {
+			room.getItems().clear();
+			Assert.fail("getItems() should be read-only");
+		} catch (UnsupportedOperationException e) {
+			// Good.
+		}
+	}
+
+	@Test
+	public void testTimeIndex() {
+		load("36c3_merged.xml");
+		s.setDay(-1);
+		ArrayList<Schedule.Item> all = new ArrayList<>();
+		for (Schedule.Line room : s.getTents()) {
+			all.addAll(room.getItems());
+		}
+
+		// Compare against the obvious brute force version, every 37 minutes through the event.
+		ZonedDateTime end = s.getLastTimeZoned().plusHours(1);
+		for (ZonedDateTime t = s.getFirstTimeZoned().minusHours(1); t.isBefore(end); t = t.plusMinutes(37)) {
+			ArrayList<Schedule.Item> running = new ArrayList<>(), starting = new ArrayList<>();
+			for (Schedule.Item it : all) {
+				if (it.getStartTimeZoned().isBefore(t) && it.getEndTimeZoned().isAfter(t)) {
+					running.add(it);
+				}
+				if (it.getStartTimeZoned().isAfter(t) && !it.getStartTimeZoned().isAfter(t.plusHours(1))) {
+					starting.add(it);
+				}
+			}
+			assertThat(s.getRunning(t), containsInAnyOrder(running.toArray()));
+			assertThat(s.getStarting(t, t.plusHours(1)), containsInAnyOrder(starting.toArray()));
+		}
+		assertThat(s.getStarting(null, null), hasSize(all.size()));
+
+		// Filtered to the current day like getItems().
+		s.setDay(1);
+		for (Schedule.Item it : s.getStarting(null, null)) {
+			assertThat(it.getLine().getItems(), hasItem(it));
+		}
+	}
+
+	@Test
+	public void testConflicts() {
+		load("fosdem_2021.xml");
+		s.setDay(-1);
+		ArrayList<Schedule.Item> all = new ArrayList<>();
+		for (Schedule.Line room : s.getTents()) {
+			all.addAll(room.getItems());
+		}
+		for (int i = 0; i < all.size(); i += 5) {
+			all.get(i).setRemind(true);
+		}
+		for (int i = 0; i < all.size(); i += 15) {
+			all.get(i).setRemind(false);
+		}
+
+		for (Schedule.Item it : all) {
+			ArrayList<Schedule.Item> exp = new ArrayList<>();
+			for (Schedule.Item other : all) {
+				if (other != it && other.getRemind() && other.overlaps(it)) {
+					exp.add(other);
+				}
+			}
+			assertThat(s.getConflicts(it), containsInAnyOrder(exp.toArray()));
+		}
+	}
+
+	@Test
+	public void testCommit() {
+		final ArrayList<Schedule.Item> saved = new ArrayList<>();
+		s = new Schedule() {
+			@Override
+			protected void applyItems(Collection<Item> items) {
+				saved.addAll(items);
+			}
+		};
+		load("fosdem_2021.xml");
+		s.getItem("11795").setHidden(true);  // Not loaded yet, so that's not a user change.
+		s.fullyLoaded = true;
+		s.commit();
+		assertThat(saved, empty());
+
+		Schedule.Item a = s.getItem("12237"), b = s.getItem("11795");
+		a.setHidden(true);
+		b.setHidden(false);
+		a.setHidden(false);  // Still counts, just saves the same thing again.
+		s.commit();
+		assertThat(saved, contains(a, b));
+
+		saved.clear();
+		s.commit();
+		assertThat(saved, empty());
 	}
-}
\ No newline at end of file
+}